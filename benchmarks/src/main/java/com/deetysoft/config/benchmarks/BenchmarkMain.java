@@ -0,0 +1,60 @@
+package com.deetysoft.config.benchmarks;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so allocation rates are
+ * reported with the times.
+ * Arguments are JMH command line options, for example a benchmark name
+ * pattern or '-p keys=1000', and '-h' and '-l' show the help and the
+ * benchmarks as for the JMH main class.
+ */
+public final class BenchmarkMain
+{
+	private BenchmarkMain ()
+	{
+	}
+
+	public static void main (String[] args)
+		throws CommandLineOptionException, IOException, RunnerException
+	{
+		CommandLineOptions options = new CommandLineOptions (args);
+		Runner runner = new Runner (new OptionsBuilder ()
+			.parent (options)
+			.addProfiler (GCProfiler.class)
+			.build ());
+
+		// The help and list options, as for the JMH main class.
+		if (options.shouldHelp ())
+		{
+			options.showHelp ();
+		}
+		else if (options.shouldList ())
+		{
+			runner.list ();
+		}
+		else if (options.shouldListWithParams ())
+		{
+			runner.listWithParams (options);
+		}
+		else if (options.shouldListProfilers ())
+		{
+			options.listProfilers ();
+		}
+		else if (options.shouldListResultFormats ())
+		{
+			options.listResultFormats ();
+		}
+		else
+		{
+			runner.run ();
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package com.deetysoft.config.benchmarks;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.deetysoft.config.ConfigProperties;
+
+/**
+ * Expansion of '%ref%' chains.
+ * The property 'top' refers to fanOut chains, each depth references
+ * long, so its expansion does fanOut*depth substitutions.
+ * The cached case reads the expanded value.
+ * The uncached case drops the caches with
+ * {@link ConfigProperties#refresh refresh} before each read, and so
+ * includes the cost of the refresh.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpansionBenchmark
+{
+	@Param({"1", "4", "16"})
+	public int	depth;
+
+	@Param({"1", "4", "16"})
+	public int	fanOut;
+
+	private ConfigProperties	configProperties;
+
+	@Setup
+	public void setup () throws Exception
+	{
+		Map<String, String> properties = new LinkedHashMap<String, String> ();
+		StringBuilder top = new StringBuilder ();
+
+		for (int f = 0; f < fanOut; f++)
+		{
+			properties.put ("chain."+f+".0", "leaf "+f);
+			for (int d = 1; d <= depth; d++)
+			{
+				properties.put ("chain."+f+"."+d, d+"-%chain."+f+"."+(d-1)+"%");
+			}
+			top.append ("%chain.").append (f).append ('.').append (depth).append ("% ");
+		}
+		properties.put ("top", top.toString ());
+
+		configProperties = new ConfigProperties (new String[]
+			{PropertyFiles.write (properties)});
+	}
+
+	@Benchmark
+	public String cached () throws Exception
+	{
+		return configProperties.get ("top");
+	}
+
+	@Benchmark
+	public String uncached () throws Exception
+	{
+		configProperties.refresh ();
+		return configProperties.get ("top");
+	}
+}
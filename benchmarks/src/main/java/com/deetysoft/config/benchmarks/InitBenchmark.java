@@ -0,0 +1,51 @@
+package com.deetysoft.config.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.deetysoft.config.ConfigProperties;
+
+/**
+ * Loading generated property files, from 10 to 1M properties spread over
+ * one or several files.
+ * Each measurement constructs a ConfigProperties, reading and merging
+ * every file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class InitBenchmark
+{
+	@Param({"10", "1000", "100000", "1000000"})
+	public int	keys;
+
+	@Param({"1", "8"})
+	public int	files;
+
+	private String[]	fileNames;
+
+	@Setup
+	public void setup () throws Exception
+	{
+		fileNames = PropertyFiles.write (keys, files);
+	}
+
+	@Benchmark
+	public ConfigProperties init () throws Exception
+	{
+		return new ConfigProperties (fileNames);
+	}
+}
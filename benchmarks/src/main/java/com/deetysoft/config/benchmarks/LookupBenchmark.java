@@ -0,0 +1,112 @@
+package com.deetysoft.config.benchmarks;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.deetysoft.config.ConfigProperties;
+
+/**
+ * Single property reads - {@link ConfigProperties#get(String) get} of a
+ * plain and a cached expanded value,
+ * {@link ConfigProperties#getUnexpanded getUnexpanded} and
+ * {@link ConfigProperties#get(String, String[]) get} with arguments.
+ * Names are taken in a random order so the lookups are not all cache
+ * hits in the processor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupBenchmark
+{
+	// The number of names read in turn.
+	private static final int	NAMES	= 1024;
+
+	@Param({"1000", "100000"})
+	public int	keys;
+
+	private ConfigProperties	configProperties;
+
+	// Names with plain values, and with values referring to another key.
+	private String[]	plainNames;
+	private String[]	expandedNames;
+
+	private final String[]	args	= {"Monday", "April"};
+
+	/**
+	 * The position in the names, for each thread.
+	 */
+	@State(Scope.Thread)
+	public static class Position
+	{
+		int	next;
+
+		int next ()
+		{
+			return next = (next+1) & (NAMES-1);
+		}
+	}
+
+	@Setup
+	public void setup () throws Exception
+	{
+		configProperties = new ConfigProperties (new String[] {
+			PropertyFiles.write (keys, 1) [0],
+			PropertyFiles.write (Collections.singletonMap
+				("format", "The day is {0} and the month is {1}."))});
+
+		Random random = new Random (17);
+		plainNames = new String [NAMES];
+		expandedNames = new String [NAMES];
+		for (int i = 0; i < NAMES; i++)
+		{
+			// Every tenth key refers to the next one.
+			int tens = random.nextInt (keys/10)*10;
+			plainNames [i] = "key."+(tens+1+random.nextInt (9));
+			expandedNames [i] = "key."+tens;
+		}
+		// Fill the expansion cache.
+		for (String name : expandedNames)
+		{
+			configProperties.get (name);
+		}
+	}
+
+	@Benchmark
+	public String getPlain (Position position) throws Exception
+	{
+		return configProperties.get (plainNames [position.next ()]);
+	}
+
+	@Benchmark
+	public String getExpanded (Position position) throws Exception
+	{
+		return configProperties.get (expandedNames [position.next ()]);
+	}
+
+	@Benchmark
+	public String getUnexpanded (Position position) throws Exception
+	{
+		return configProperties.getUnexpanded (plainNames [position.next ()]);
+	}
+
+	@Benchmark
+	public String getWithArgs () throws Exception
+	{
+		return configProperties.get ("format", args);
+	}
+}
@@ -0,0 +1,111 @@
+package com.deetysoft.config.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Generated property files for the benchmarks.
+ * Files are written to a temporary directory and deleted on exit.
+ */
+final class PropertyFiles
+{
+	private PropertyFiles ()
+	{
+	}
+
+	/**
+	 * Write the properties 'key.0' to 'key.n-1', spread over a number of
+	 * files.
+	 * A tenth of the values refer to the next key, so some expansion is
+	 * done as well.
+	 *
+	 * @param		keys		the number of properties
+	 * @param		files		the number of files
+	 * @return					the file paths
+	 * @exception	IOException	writing a file
+	 */
+	static String[] write (int keys, int files) throws IOException
+	{
+		File dir = createDirectory ();
+		String[] names = new String [files];
+		int perFile = (keys+files-1)/files;
+
+		for (int f = 0; f < files; f++)
+		{
+			File file = new File (dir, "keys-"+f+".properties");
+			file.deleteOnExit ();
+			names [f] = file.getPath ();
+
+			Writer out = open (file);
+			try
+			{
+				int end = Math.min (keys, (f+1)*perFile);
+				for (int i = f*perFile; i < end; i++)
+				{
+					out.write ("key."+i+"=value "+i);
+					if (i%10 == 0 && i+1 < keys)
+					{
+						out.write (" %key."+(i+1)+"%");
+					}
+					out.write ('\n');
+				}
+			}
+			finally
+			{
+				out.close ();
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * Write the given properties to one file.
+	 *
+	 * @param		properties	the properties, not escaped
+	 * @return					the file path
+	 * @exception	IOException	writing the file
+	 */
+	static String write (Map<String, String> properties) throws IOException
+	{
+		File file = new File (createDirectory (), "properties.properties");
+		file.deleteOnExit ();
+
+		Writer out = open (file);
+		try
+		{
+			for (Map.Entry<String, String> entry : properties.entrySet ())
+			{
+				out.write (entry.getKey ()+"="+entry.getValue ()+"\n");
+			}
+		}
+		finally
+		{
+			out.close ();
+		}
+		return file.getPath ();
+	}
+
+	private static File createDirectory () throws IOException
+	{
+		File dir = File.createTempFile ("config-benchmark", "");
+
+		if (!dir.delete () || !dir.mkdir ())
+		{
+			throw new IOException ("Can't create directory '"+dir+"'.");
+		}
+		dir.deleteOnExit ();
+		return dir;
+	}
+
+	private static Writer open (File file) throws IOException
+	{
+		return new BufferedWriter (new OutputStreamWriter
+			(new FileOutputStream (file), StandardCharsets.ISO_8859_1));
+	}
+}
@@ -0,0 +1,93 @@
+package com.deetysoft.config.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.deetysoft.config.ConfigPropertiesS;
+
+/**
+ * Concurrent reads of the {@link ConfigPropertiesS} singleton.
+ * Each benchmark is run on one thread and on eight, so contention shows
+ * as the difference; run with '-t' for other thread counts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SingletonReadersBenchmark
+{
+	// The number of names read in turn.
+	private static final int	NAMES	= 1024;
+
+	@Param({"100000"})
+	public int	keys;
+
+	private String[]	names;
+
+	/**
+	 * The position in the names, for each thread.
+	 */
+	@State(Scope.Thread)
+	public static class Position
+	{
+		int	next;
+
+		int next ()
+		{
+			return next = (next+1) & (NAMES-1);
+		}
+	}
+
+	@Setup
+	public void setup () throws Exception
+	{
+		ConfigPropertiesS.init (PropertyFiles.write (keys, 1));
+
+		names = new String [NAMES];
+		for (int i = 0; i < NAMES; i++)
+		{
+			names [i] = "key."+(i*(keys/NAMES));
+		}
+	}
+
+	@Benchmark
+	@Threads(1)
+	public String get1 (Position position) throws Exception
+	{
+		return ConfigPropertiesS.get (names [position.next ()]);
+	}
+
+	@Benchmark
+	@Threads(8)
+	public String get8 (Position position) throws Exception
+	{
+		return ConfigPropertiesS.get (names [position.next ()]);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public String getUnexpanded1 (Position position) throws Exception
+	{
+		return ConfigPropertiesS.getUnexpanded (names [position.next ()]);
+	}
+
+	@Benchmark
+	@Threads(8)
+	public String getUnexpanded8 (Position position) throws Exception
+	{
+		return ConfigPropertiesS.getUnexpanded (names [position.next ()]);
+	}
+}
@@ -0,0 +1,208 @@
+package com.deetysoft.config;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A property value compiled for run-time argument substitution.
+ * A value using only plain '{n}' arguments is formatted directly from its
+ * segments.
+ * Any other value is parsed once into a {@link MessageFormat} which is
+ * cloned for each use, because a MessageFormat is not safe for concurrent
+ * use.
+ * Either way the result is the same as
+ * {@link MessageFormat#format(String, Object[]) MessageFormat.format}.
+ */
+abstract class ArgumentFormat
+{
+	// The longest argument index handled by the plain format.
+	private static final int	MAX_INDEX_DIGITS	= 4;
+
+	/**
+	 * Compile a pattern.
+	 *
+	 * @param	pattern		the pattern
+	 * @return				the format
+	 * @exception			IllegalArgumentException
+	 *						if the pattern is invalid
+	 */
+	static ArgumentFormat compile (String pattern)
+	{
+		ArgumentFormat format = Plain.compile (pattern);
+
+		if (format == null)
+		{
+			format = new Message (new MessageFormat (pattern));
+		}
+		return format;
+	}
+
+	/**
+	 * Format the arguments.
+	 *
+	 * @param	args	the arguments, may be null
+	 * @return			the formatted string
+	 */
+	abstract String format (String[] args);
+
+	/**
+	 * Append the formatted arguments.
+	 *
+	 * @param		args		the arguments, may be null
+	 * @param		out			where to append
+	 * @exception	IOException	appending to out
+	 */
+	abstract void appendTo (String[] args, Appendable out) throws IOException;
+
+	/**
+	 * Format using a shared MessageFormat.
+	 */
+	private static final class Message extends ArgumentFormat
+	{
+		private final MessageFormat	format;
+
+		Message (MessageFormat format)
+		{
+			this.format = format;
+		}
+
+		String format (String[] args)
+		{
+			return ((MessageFormat) format.clone ()).format ((Object[]) args);
+		}
+
+		// A MessageFormat writes only to a StringBuffer, so for any other
+		// Appendable the formatted string is built and copied.
+		void appendTo (String[] args, Appendable out) throws IOException
+		{
+			MessageFormat clone = (MessageFormat) format.clone ();
+
+			if (out instanceof StringBuffer)
+			{
+				clone.format ((Object[]) args, (StringBuffer) out, null);
+			}
+			else
+			{
+				out.append (clone.format ((Object[]) args, new StringBuffer (), null));
+			}
+		}
+	}
+
+	/**
+	 * Format a pattern having only plain '{n}' arguments and no quotes.
+	 */
+	static final class Plain extends ArgumentFormat
+	{
+		// The literal segments, one more than the indices.
+		final String[]	literals;
+
+		// The argument indices.
+		final int[]		indices;
+
+		final int		literalLength;
+
+		private Plain (String[] literals, int[] indices)
+		{
+			this.literals = literals;
+			this.indices = indices;
+
+			int length = 0;
+			for (int i = 0; i < literals.length; i++)
+			{
+				length += literals [i].length ();
+			}
+			literalLength = length;
+		}
+
+		/**
+		 * Compile a pattern.
+		 *
+		 * @param	pattern		the pattern
+		 * @return				the format or null if the pattern
+		 *						is not plain
+		 */
+		static Plain compile (String pattern)
+		{
+			if (pattern.indexOf ('\'') != -1)
+			{
+				return null;
+			}
+
+			List<String> literals = new ArrayList<String> ();
+			List<Integer> indices = new ArrayList<Integer> ();
+
+			int start = 0;
+			int open;
+
+			while ((open = pattern.indexOf ('{', start)) != -1)
+			{
+				int close = open+1;
+				while (close < pattern.length ()
+					&& Character.isDigit (pattern.charAt (close))
+					&& pattern.charAt (close) < 128)
+				{
+					close++;
+				}
+
+				int digits = close-open-1;
+
+				if (digits == 0 || digits > MAX_INDEX_DIGITS
+					|| close == pattern.length ()
+					|| pattern.charAt (close) != '}')
+				{
+					return null;
+				}
+				literals.add (pattern.substring (start, open));
+				indices.add (Integer.parseInt (pattern.substring (open+1, close)));
+				start = close+1;
+			}
+			literals.add (pattern.substring (start));
+
+			int[] indexArray = new int [indices.size ()];
+			for (int i = 0; i < indexArray.length; i++)
+			{
+				indexArray [i] = indices.get (i);
+			}
+			return new Plain (literals.toArray (new String [literals.size ()]),
+				indexArray);
+		}
+
+		String format (String[] args)
+		{
+			StringBuilder builder = new StringBuilder (literalLength+16*indices.length);
+
+			try
+			{
+				appendTo (args, builder);
+			}
+			catch (IOException e)
+			{
+				// A StringBuilder does not throw.
+				throw new IllegalStateException (e);
+			}
+			return builder.toString ();
+		}
+
+		void appendTo (String[] args, Appendable out) throws IOException
+		{
+			for (int i = 0; i < indices.length; i++)
+			{
+				out.append (literals [i]);
+
+				int index = indices [i];
+
+				if (args == null || index >= args.length)
+				{
+					out.append ('{').append (String.valueOf (index)).append ('}');
+				}
+				else
+				{
+					out.append (args [index]);
+				}
+			}
+			out.append (literals [indices.length]);
+		}
+	}
+}
@@ -0,0 +1,326 @@
+package com.deetysoft.config;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable map of property names to values, stored compactly for
+ * large property sets.
+ * <p>
+ * Names are split at '.' into segments and stored as a tree of segments,
+ * so names sharing a dotted prefix share its nodes and each name is a
+ * single int.
+ * Segments and values are deduplicated while a map is built, and a map
+ * built from another, such as the merged {@link Snapshot} from those of
+ * each {@link PropertyFile}, keeps its value instances.
+ * Maps built at once, as when files are read concurrently, share no lock.
+ * Entries are kept in flat arrays indexed by an open-addressing hash table,
+ * so there is no object per entry.
+ * <p>
+ * {@link #get get} and {@link #containsKey containsKey} compare the name
+ * to the stored segments in place and do not allocate.
+ * Iterating builds each name again, so prefer lookups on hot paths.
+ * A lookup walks the segments and is slower than a HashMap's, so a
+ * Snapshot caches the values it expands, but not literal values, which
+ * would take as much memory again.
+ */
+final class CompactMap extends AbstractMap<String, String>
+{
+	// The segment separator.
+	private static final char	SEPARATOR	= '.';
+
+	/**
+	 * The map with no entries.
+	 */
+	static final CompactMap	EMPTY	= of (new HashMap<String, String> ());
+
+	// The segment tree: each node's parent, -1 for a first segment,
+	// and its segment.
+	private final int[]		parents;
+	private final String[]	segments;
+
+	// The entries: the name's hash code, its last node and the value.
+	private final int[]		hashes;
+	private final int[]		nodes;
+	private final String[]	values;
+
+	// The hash table of entry index + 1, 0 for an empty slot.
+	// The length is a power of 2.
+	private final int[]		slots;
+
+	private Set<Map.Entry<String, String>>	entrySet;
+
+	private CompactMap (int[] parents, String[] segments, int[] hashes,
+		int[] nodes, String[] values, int[] slots)
+	{
+		this.parents = parents;
+		this.segments = segments;
+		this.hashes = hashes;
+		this.nodes = nodes;
+		this.values = values;
+		this.slots = slots;
+	}
+
+	/**
+	 * Create a map with the given entries.
+	 *
+	 * @param	map		the entries
+	 * @return			the map
+	 */
+	static CompactMap of (Map<String, String> map)
+	{
+		if (map instanceof CompactMap)
+		{
+			return (CompactMap) map;
+		}
+		int size = map.size ();
+
+		// The node for each prefix and the deduplicated strings, while
+		// building.
+		HashMap<String, Integer> prefixes = new HashMap<String, Integer> ();
+		HashMap<String, String> strings = new HashMap<String, String> ();
+		int[] parents = new int [Math.max (size, 1)];
+		String[] segments = new String [parents.length];
+		int count = 0;
+
+		int[] hashes = new int [size];
+		int[] nodes = new int [size];
+		String[] values = new String [size];
+
+		int capacity = Integer.highestOneBit (Math.max (size*2-1, 1)) << 1;
+		int[] slots = new int [capacity];
+
+		int entry = 0;
+
+		for (Map.Entry<String, String> e : map.entrySet ())
+		{
+			String name = e.getKey ();
+			int node = -1;
+			int start = 0;
+
+			while (true)
+			{
+				int end = name.indexOf (SEPARATOR, start);
+				String prefix = end < 0 ? name : name.substring (0, end);
+				Integer existing = prefixes.get (prefix);
+
+				if (existing != null)
+				{
+					node = existing.intValue ();
+				}
+				else
+				{
+					if (count == parents.length)
+					{
+						parents = copyOf (parents, count*2);
+						segments = copyOf (segments, count*2);
+					}
+					parents [count] = node;
+					segments [count] = intern (strings, end < 0 ?
+						name.substring (start) : name.substring (start, end));
+					node = count++;
+					prefixes.put (prefix, Integer.valueOf (node));
+				}
+				if (end < 0)
+				{
+					break;
+				}
+				start = end+1;
+			}
+
+			int hash = name.hashCode ();
+			hashes [entry] = hash;
+			nodes [entry] = node;
+			values [entry] = intern (strings, e.getValue ());
+
+			int slot = spread (hash) & (capacity-1);
+			while (slots [slot] != 0)
+			{
+				slot = (slot+1) & (capacity-1);
+			}
+			slots [slot] = ++entry;
+		}
+
+		return new CompactMap (copyOf (parents, count), copyOf (segments, count),
+			hashes, nodes, values, slots);
+	}
+
+	public int size ()
+	{
+		return values.length;
+	}
+
+	public String get (Object key)
+	{
+		int entry = find (key);
+		return entry < 0 ? null : values [entry];
+	}
+
+	public boolean containsKey (Object key)
+	{
+		return find (key) >= 0;
+	}
+
+	public Set<Map.Entry<String, String>> entrySet ()
+	{
+		if (entrySet == null)
+		{
+			entrySet = new AbstractSet<Map.Entry<String, String>> ()
+			{
+				public int size ()
+				{
+					return values.length;
+				}
+
+				public Iterator<Map.Entry<String, String>> iterator ()
+				{
+					return new EntryIterator ();
+				}
+			};
+		}
+		return entrySet;
+	}
+
+	// Find the entry index for a name, -1 if not found.
+	private int find (Object key)
+	{
+		if (!(key instanceof String))
+		{
+			return -1;
+		}
+		String name = (String) key;
+		int hash = name.hashCode ();
+		int mask = slots.length-1;
+
+		for (int slot = spread (hash) & mask; slots [slot] != 0; slot = (slot+1) & mask)
+		{
+			int entry = slots [slot]-1;
+
+			if (hashes [entry] == hash && matches (nodes [entry], name))
+			{
+				return entry;
+			}
+		}
+		return -1;
+	}
+
+	// Check whether the segments ending at a node spell the name.
+	private boolean matches (int node, String name)
+	{
+		int end = name.length ();
+
+		while (true)
+		{
+			String segment = segments [node];
+			int start = end-segment.length ();
+
+			if (start < 0 || !name.regionMatches (start, segment, 0, segment.length ()))
+			{
+				return false;
+			}
+			node = parents [node];
+
+			if (node < 0)
+			{
+				return start == 0;
+			}
+			if (start == 0 || name.charAt (start-1) != SEPARATOR)
+			{
+				return false;
+			}
+			end = start-1;
+		}
+	}
+
+	// Build the name ending at a node.
+	private String name (int node)
+	{
+		int length = -1;
+		for (int n = node; n >= 0; n = parents [n])
+		{
+			length += segments [n].length ()+1;
+		}
+
+		char[] chars = new char [length];
+		int end = length;
+		for (int n = node; n >= 0; n = parents [n])
+		{
+			String segment = segments [n];
+			int start = end-segment.length ();
+			segment.getChars (0, segment.length (), chars, start);
+			if (start > 0)
+			{
+				chars [start-1] = SEPARATOR;
+			}
+			end = start-1;
+		}
+		return new String (chars);
+	}
+
+	// Get the shared instance of a string.
+	private static String intern (HashMap<String, String> strings, String s)
+	{
+		String shared = strings.get (s);
+
+		if (shared == null)
+		{
+			strings.put (s, s);
+			shared = s;
+		}
+		return shared;
+	}
+
+	// Mix the high bits of a hash code into the low bits.
+	private static int spread (int hash)
+	{
+		return hash ^ (hash >>> 16);
+	}
+
+	private static int[] copyOf (int[] a, int length)
+	{
+		int[] copy = new int [length];
+		System.arraycopy (a, 0, copy, 0, Math.min (a.length, length));
+		return copy;
+	}
+
+	private static String[] copyOf (String[] a, int length)
+	{
+		String[] copy = new String [length];
+		System.arraycopy (a, 0, copy, 0, Math.min (a.length, length));
+		return copy;
+	}
+
+	/**
+	 * Iterates the entries in the order they were added.
+	 */
+	private final class EntryIterator implements Iterator<Map.Entry<String, String>>
+	{
+		private int	next;
+
+		public boolean hasNext ()
+		{
+			return next < values.length;
+		}
+
+		public Map.Entry<String, String> next ()
+		{
+			if (next >= values.length)
+			{
+				throw new NoSuchElementException ();
+			}
+			int entry = next++;
+			return new AbstractMap.SimpleImmutableEntry<String, String>
+				(name (nodes [entry]), values [entry]);
+		}
+
+		public void remove ()
+		{
+			throw new UnsupportedOperationException ();
+		}
+	}
+}
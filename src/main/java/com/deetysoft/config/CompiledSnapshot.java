@@ -0,0 +1,555 @@
+package com.deetysoft.config;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Merged and expanded properties in a binary file, read through a memory
+ * map.
+ * Write one with {@link SnapshotCompiler}.
+ * <p>
+ * The file holds a string table, a hash index of the property names, and
+ * for each property its value and its expanded value.
+ * Values referring to 'env.' properties, directly or through other
+ * properties, are not expanded in the file since system properties may
+ * differ when it is read.
+ * The file also holds the names in the property file list, with the
+ * checksum of each file a name found, and is refused when a file has
+ * changed or a name finds other files.
+ * The names are resolved again when the file is read, so a name that
+ * found no files is recorded too, and a relative or CLASSPATH name still
+ * matches after the files are moved.
+ * <p>
+ * Layout, big-endian:
+ * <pre>
+ * header		magic, version, source count, string count, entry count,
+ *				slot count
+ * sources		per file found by each name: name, CRC-32 of the
+ *				content, or the name and -1 for a name finding no files
+ * strings		per string: its offset
+ * slots		per slot: entry + 1, 0 for an empty slot
+ * entries		per entry: name hash code, name, value, expanded value
+ *				or -1
+ * string data	per string: length &lt;&lt; 1 | 1 for ISO 8859-1 or 0 for
+ *				UTF-16, then its characters
+ * </pre>
+ */
+final class CompiledSnapshot
+{
+	// The file magic number, 'CFGS'.
+	private static final int	MAGIC	= 0x43464753;
+
+	// The file format version.
+	private static final int	VERSION	= 2;
+
+	// The header size and the size of each source and entry.
+	private static final int	HEADER	= 24;
+	private static final int	SOURCE	= 12;
+	private static final int	ENTRY	= 16;
+
+	// The content.
+	private final ByteBuffer	buffer;
+
+	private final int	entryCount;
+	private final int	slotCount;
+
+	// The offsets of the sections.
+	private final int	strings;
+	private final int	slots;
+	private final int	entries;
+
+	// The properties, read from the file when requested.
+	final Map<String, String>	properties	= new PropertyMap ();
+
+	private CompiledSnapshot (ByteBuffer buffer) throws IOException
+	{
+		this.buffer = buffer;
+
+		if (buffer.limit () < HEADER || buffer.getInt (0) != MAGIC)
+		{
+			throw new IOException ("Not a property snapshot.");
+		}
+		if (buffer.getInt (4) != VERSION)
+		{
+			throw new IOException ("Unsupported property snapshot version "+
+				buffer.getInt (4)+".");
+		}
+		int sourceCount = buffer.getInt (8);
+		int stringCount = buffer.getInt (12);
+		entryCount = buffer.getInt (16);
+		slotCount = buffer.getInt (20);
+
+		strings = HEADER+sourceCount*SOURCE;
+		slots = strings+stringCount*4;
+		entries = slots+slotCount*4;
+	}
+
+	/**
+	 * Write a snapshot file.
+	 *
+	 * @param		snapshot	the properties, all expanded by
+	 *							{@link Snapshot#expandAll expandAll}
+	 * @param		fileList	the property file list
+	 * @param		files		the files the properties were read from
+	 * @param		loader		the class loader the names were resolved by
+	 * @param		fileName	the snapshot file name
+	 * @exception	IOException	writing the file, or if a name finds a
+	 *							file not read
+	 */
+	static void write (Snapshot snapshot, List<String> fileList,
+		List<PropertyFile> files, ClassLoader loader, String fileName)
+		throws IOException
+	{
+		Map<String, String> properties = snapshot.properties;
+		Set<String> envDependents =
+			snapshot.graph.getDependents (snapshot.graph.envNames);
+
+		// Number the strings.
+		HashMap<String, Integer> numbers = new HashMap<String, Integer> ();
+		List<String> table = new ArrayList<String> ();
+
+		// Each name with the checksums of the files it finds now, as read.
+		List<Integer> sourceNames = new ArrayList<Integer> ();
+		List<Long> sourceChecksums = new ArrayList<Long> ();
+		for (String name : fileList)
+		{
+			int number = number (name, numbers, table);
+			List<PropertyFile> found = ConfigSources.resolve (name, loader);
+
+			if (found.isEmpty ())
+			{
+				sourceNames.add (number);
+				sourceChecksums.add (-1L);
+			}
+			for (PropertyFile file : found)
+			{
+				sourceNames.add (number);
+				sourceChecksums.add (getChecksum (file.location, files));
+			}
+		}
+
+		int size = properties.size ();
+		int[] hashes = new int [size];
+		int[] names = new int [size];
+		int[] values = new int [size];
+		int[] expanded = new int [size];
+		int slotCount = Integer.highestOneBit (Math.max (size*2-1, 1)) << 1;
+		int[] slotTable = new int [slotCount];
+
+		int entry = 0;
+		for (Map.Entry<String, String> e : properties.entrySet ())
+		{
+			String name = e.getKey ();
+			hashes [entry] = name.hashCode ();
+			names [entry] = number (name, numbers, table);
+			values [entry] = number (e.getValue (), numbers, table);
+			expanded [entry] = envDependents.contains (name) ? -1
+				: number (expanded (snapshot, name, e.getValue ()), numbers, table);
+
+			int slot = spread (hashes [entry]) & (slotCount-1);
+			while (slotTable [slot] != 0)
+			{
+				slot = (slot+1) & (slotCount-1);
+			}
+			slotTable [slot] = ++entry;
+		}
+
+		int stringCount = table.size ();
+		int offset = HEADER+sourceNames.size ()*SOURCE+stringCount*4+slotCount*4+
+			size*ENTRY;
+
+		DataOutputStream out = new DataOutputStream (new BufferedOutputStream
+			(new FileOutputStream (new File (fileName))));
+		try
+		{
+			out.writeInt (MAGIC);
+			out.writeInt (VERSION);
+			out.writeInt (sourceNames.size ());
+			out.writeInt (stringCount);
+			out.writeInt (size);
+			out.writeInt (slotCount);
+
+			for (int i = 0; i < sourceNames.size (); i++)
+			{
+				out.writeInt (sourceNames.get (i));
+				out.writeLong (sourceChecksums.get (i));
+			}
+			for (String s : table)
+			{
+				out.writeInt (offset);
+				offset += 4+(isLatin1 (s) ? s.length () : s.length ()*2);
+			}
+			for (int i = 0; i < slotCount; i++)
+			{
+				out.writeInt (slotTable [i]);
+			}
+			for (int i = 0; i < size; i++)
+			{
+				out.writeInt (hashes [i]);
+				out.writeInt (names [i]);
+				out.writeInt (values [i]);
+				out.writeInt (expanded [i]);
+			}
+			for (String s : table)
+			{
+				if (isLatin1 (s))
+				{
+					out.writeInt (s.length () << 1 | 1);
+					out.writeBytes (s);
+				}
+				else
+				{
+					out.writeInt (s.length () << 1);
+					out.writeChars (s);
+				}
+			}
+		}
+		finally
+		{
+			out.close ();
+		}
+	}
+
+	/**
+	 * Read a snapshot file.
+	 * The file is memory-mapped, and each name in the property file list
+	 * is resolved again and the files it finds are read, to check that
+	 * they have not changed.
+	 *
+	 * @param		fileName	the snapshot file name
+	 * @param		loader		the class loader to resolve the names by
+	 * @return					the snapshot
+	 * @exception	IOException	reading the file, if it is not a snapshot,
+	 *							or if a property file has changed
+	 */
+	static CompiledSnapshot read (String fileName, ClassLoader loader)
+		throws IOException
+	{
+		FileChannel channel = FileChannel.open (new File (fileName).toPath (),
+			StandardOpenOption.READ);
+		CompiledSnapshot compiled;
+		try
+		{
+			compiled = new CompiledSnapshot
+				(channel.map (FileChannel.MapMode.READ_ONLY, 0, channel.size ()));
+		}
+		finally
+		{
+			channel.close ();
+		}
+
+		int sourceCount = compiled.buffer.getInt (8);
+		for (int i = 0; i < sourceCount;)
+		{
+			// The files found by the name, and those found when written.
+			int number = compiled.buffer.getInt (HEADER+i*SOURCE);
+			String name = compiled.string (number);
+			List<PropertyFile> found = ConfigSources.resolve (name, loader);
+			List<Long> checksums = new ArrayList<Long> ();
+
+			for (; i < sourceCount; i++)
+			{
+				int at = HEADER+i*SOURCE;
+
+				if (compiled.buffer.getInt (at) != number)
+				{
+					break;
+				}
+				long checksum = compiled.buffer.getLong (at+4);
+
+				if (checksum != -1)
+				{
+					checksums.add (checksum);
+				}
+			}
+
+			if (found.size () != checksums.size ())
+			{
+				throw new IOException ("Property snapshot '"+fileName+
+					"' is stale, property files '"+name+"' have been added or removed.");
+			}
+			for (int j = 0; j < found.size (); j++)
+			{
+				if (found.get (j).readChecksum () != checksums.get (j).longValue ())
+				{
+					throw new IOException ("Property snapshot '"+fileName+
+						"' is stale, property file '"+found.get (j).location+
+						"' has changed.");
+				}
+			}
+		}
+		return compiled;
+	}
+
+	/**
+	 * Get the expanded value of a property.
+	 *
+	 * @param	name	the property name
+	 * @return			the value, or null if the property is not found or
+	 *					is not expanded in the file
+	 */
+	String getExpanded (String name)
+	{
+		int entry = find (name);
+
+		if (entry < 0)
+		{
+			return null;
+		}
+		int expanded = buffer.getInt (entries+entry*ENTRY+12);
+		return expanded < 0 ? null : string (expanded);
+	}
+
+	/**
+	 * Get the names of the properties not expanded in the file.
+	 *
+	 * @return	the names
+	 */
+	List<String> getUnexpandedNames ()
+	{
+		List<String> names = new ArrayList<String> ();
+
+		for (int entry = 0; entry < entryCount; entry++)
+		{
+			if (buffer.getInt (entries+entry*ENTRY+12) < 0)
+			{
+				names.add (string (buffer.getInt (entries+entry*ENTRY+4)));
+			}
+		}
+		return names;
+	}
+
+	// Find the entry for a name, -1 if not found.
+	private int find (Object key)
+	{
+		if (!(key instanceof String))
+		{
+			return -1;
+		}
+		String name = (String) key;
+		int hash = name.hashCode ();
+		int mask = slotCount-1;
+
+		for (int slot = spread (hash) & mask;; slot = (slot+1) & mask)
+		{
+			int entry = buffer.getInt (slots+slot*4)-1;
+
+			if (entry < 0)
+			{
+				return -1;
+			}
+			int at = entries+entry*ENTRY;
+
+			if (buffer.getInt (at) == hash && equals (buffer.getInt (at+4), name))
+			{
+				return entry;
+			}
+		}
+	}
+
+	// Compare a string in the table to a string.
+	private boolean equals (int number, String s)
+	{
+		int at = buffer.getInt (strings+number*4);
+		int header = buffer.getInt (at);
+		int length = header >>> 1;
+
+		if (length != s.length ())
+		{
+			return false;
+		}
+		at += 4;
+		boolean latin1 = (header & 1) != 0;
+
+		for (int i = 0; i < length; i++)
+		{
+			char c = latin1 ? (char) (buffer.get (at+i) & 0xff)
+				: buffer.getChar (at+i*2);
+
+			if (c != s.charAt (i))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Get a string from the table.
+	private String string (int number)
+	{
+		int at = buffer.getInt (strings+number*4);
+		int header = buffer.getInt (at);
+		int length = header >>> 1;
+		char[] chars = new char [length];
+
+		at += 4;
+		if ((header & 1) != 0)
+		{
+			for (int i = 0; i < length; i++)
+			{
+				chars [i] = (char) (buffer.get (at+i) & 0xff);
+			}
+		}
+		else
+		{
+			for (int i = 0; i < length; i++)
+			{
+				chars [i] = buffer.getChar (at+i*2);
+			}
+		}
+		return new String (chars);
+	}
+
+	// Get the checksum of a file as read.
+	private static long getChecksum (String location, List<PropertyFile> files)
+		throws IOException
+	{
+		for (PropertyFile file : files)
+		{
+			if (file.location.equals (location))
+			{
+				return file.getChecksum ();
+			}
+		}
+		throw new IOException ("Property file '"+location+
+			"' was found but not read, read the property files again.");
+	}
+
+	// Get an expanded value, a literal being its own expansion.
+	private static String expanded (Snapshot snapshot, String name,
+		String literal)
+	{
+		String value = snapshot.expanded.get (name);
+
+		if (value == null && snapshot.compiled != null)
+		{
+			value = snapshot.compiled.getExpanded (name);
+		}
+		if (value == null && snapshot.templates.get (name) == null)
+		{
+			value = literal;
+		}
+		if (value == null)
+		{
+			throw new IllegalStateException ("Property '"+name+"' is not expanded.");
+		}
+		return value;
+	}
+
+	// Get the number of a string, adding it to the table if new.
+	private static int number (String s, Map<String, Integer> numbers,
+		List<String> table)
+	{
+		Integer number = numbers.get (s);
+
+		if (number == null)
+		{
+			number = Integer.valueOf (table.size ());
+			numbers.put (s, number);
+			table.add (s);
+		}
+		return number.intValue ();
+	}
+
+	private static boolean isLatin1 (String s)
+	{
+		for (int i = 0; i < s.length (); i++)
+		{
+			if (s.charAt (i) > 0xff)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Mix the high bits of a hash code into the low bits.
+	private static int spread (int hash)
+	{
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * The properties as an immutable map read from the file.
+	 */
+	private final class PropertyMap extends AbstractMap<String, String>
+	{
+		private Set<Map.Entry<String, String>>	entrySet;
+
+		public int size ()
+		{
+			return entryCount;
+		}
+
+		public String get (Object key)
+		{
+			int entry = find (key);
+			return entry < 0 ? null : string (buffer.getInt (entries+entry*ENTRY+8));
+		}
+
+		public boolean containsKey (Object key)
+		{
+			return find (key) >= 0;
+		}
+
+		public Set<Map.Entry<String, String>> entrySet ()
+		{
+			if (entrySet == null)
+			{
+				entrySet = new AbstractSet<Map.Entry<String, String>> ()
+				{
+					public int size ()
+					{
+						return entryCount;
+					}
+
+					public Iterator<Map.Entry<String, String>> iterator ()
+					{
+						return new Iterator<Map.Entry<String, String>> ()
+						{
+							private int	next;
+
+							public boolean hasNext ()
+							{
+								return next < entryCount;
+							}
+
+							public Map.Entry<String, String> next ()
+							{
+								if (next >= entryCount)
+								{
+									throw new NoSuchElementException ();
+								}
+								int at = entries+(next++)*ENTRY;
+								return new AbstractMap.SimpleImmutableEntry<String, String>
+									(string (buffer.getInt (at+4)),
+									 string (buffer.getInt (at+8)));
+							}
+
+							public void remove ()
+							{
+								throw new UnsupportedOperationException ();
+							}
+						};
+					}
+				};
+			}
+			return entrySet;
+		}
+	}
+}
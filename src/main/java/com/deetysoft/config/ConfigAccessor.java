@@ -0,0 +1,62 @@
+package com.deetysoft.config;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an interface for which {@link ConfigAccessorProcessor} generates
+ * an accessor class when the interface is compiled.
+ * <p>
+ * Each abstract method of the interface takes no parameters and reads one
+ * property, named by {@link ConfigName} or else by the {@link #prefix}
+ * followed by the method name.
+ * The return type is one of the types supported by {@link ConfigKey}, or
+ * int, long, boolean or double.
+ * For example:
+ * <pre>
+ * &#64;ConfigAccessor(files = {"db.properties"}, prefix = "db.")
+ * public interface DbConfig
+ * {
+ *     String host ();
+ *     int port ();
+ *     &#64;ConfigName("pool.timeout") Duration timeout ();
+ * }
+ * </pre>
+ * generates the class DbConfigAccessor implementing DbConfig.
+ * The build fails if a property is not defined in the files, or if its
+ * value is a literal that can't be parsed to the return type.
+ *
+ * @see ConfigAccessorProcessor
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface ConfigAccessor
+{
+	/**
+	 * The property files, read and merged in order at build time and by
+	 * the accessor's default constructor.
+	 *
+	 * @return	the file names
+	 */
+	String[] files () default {ConfigProperties.DEFAULT_FILE};
+
+	/**
+	 * The prefix of property names not given by {@link ConfigName}.
+	 *
+	 * @return	the prefix
+	 */
+	String prefix () default "";
+
+	/**
+	 * True to also generate {@link ConfigProperties#FILES_CLASS} listing
+	 * the {@link #files}, for the default ConfigProperties constructor.
+	 * At most one interface may set this.
+	 *
+	 * @return	true to generate the files class
+	 */
+	boolean filesClass () default false;
+}
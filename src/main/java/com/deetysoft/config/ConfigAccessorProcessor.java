@@ -0,0 +1,660 @@
+package com.deetysoft.config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.StandardLocation;
+
+/**
+ * Generates the accessor class of each interface marked
+ * {@link ConfigAccessor} when it is compiled.
+ * The processor is registered as a service, so javac runs it whenever
+ * this package is on the compile class path.
+ * <p>
+ * For an interface Name, the class NameAccessor in the same package
+ * implements each method by reading a {@link ConfigKey} bound when the
+ * accessor is constructed, so a read is a field access with no name lookup
+ * or parsing.
+ * The property names are checked against the property files at build time,
+ * so a misspelled name fails the build rather than a read.
+ * A method not declaring {@link MissingPropertyException} and
+ * {@link StringFormatException} throws them wrapped in an
+ * IllegalStateException.
+ * <p>
+ * The accessor's static getFileNames method lists the
+ * {@link ConfigAccessor#files files}, and its default constructor reads
+ * them, with no lookup of {@link ConfigProperties#FILES_CLASS}.
+ * <p>
+ * A property file is found in the directories listed by the
+ * {@link #PATH_OPTION} processor option, then in the class output and the
+ * source path, then in the working directory.
+ * For example, to compile before Maven copies the resources:
+ * <pre>
+ * javac -Aconfig.path=src/main/resources ...
+ * </pre>
+ * Files from other {@link ConfigSource}s, such as 'memory:' or 'glob:',
+ * can't be read at build time, and the names of an interface using them
+ * are not checked.
+ */
+@SupportedAnnotationTypes("com.deetysoft.config.ConfigAccessor")
+@SupportedOptions(ConfigAccessorProcessor.PATH_OPTION)
+public final class ConfigAccessorProcessor extends AbstractProcessor
+{
+	/**
+	 * The processor option listing directories to find property files in -
+	 * 'config.path'.
+	 * The directories are separated by the path separator.
+	 */
+	public static final String	PATH_OPTION	= "config.path";
+
+	// The suffix of an accessor class name.
+	private static final String	SUFFIX	= "Accessor";
+
+	// The supported declared return types by name, see TypedValue.
+	private static final Map<String, Class<?>>	DECLARED_TYPES	=
+		new HashMap<String, Class<?>> ();
+
+	static
+	{
+		for (Class<?> type : new Class<?>[] {String.class, Integer.class,
+			Long.class, Boolean.class, Double.class, Duration.class, List.class})
+		{
+			DECLARED_TYPES.put (type.getName (), type);
+		}
+	}
+
+	// The interface generating the files class, or null.
+	private TypeElement	filesClassElement;
+
+	public SourceVersion getSupportedSourceVersion ()
+	{
+		return SourceVersion.latestSupported ();
+	}
+
+	public boolean process (Set<? extends TypeElement> annotations,
+		RoundEnvironment roundEnv)
+	{
+		for (Element element : roundEnv.getElementsAnnotatedWith (ConfigAccessor.class))
+		{
+			if (element.getKind () != ElementKind.INTERFACE)
+			{
+				error (element, "@ConfigAccessor must mark an interface.");
+				continue;
+			}
+			try
+			{
+				generate ((TypeElement) element);
+			}
+			catch (IOException e)
+			{
+				error (element, "Can't generate accessor : "+e.getMessage ());
+			}
+		}
+		return true;
+	}
+
+	// Check an interface against its property files and write its accessor.
+	private void generate (TypeElement type) throws IOException
+	{
+		ConfigAccessor annotation = type.getAnnotation (ConfigAccessor.class);
+		String[] files = annotation.files ();
+
+		if (!type.getTypeParameters ().isEmpty ())
+		{
+			error (type, "@ConfigAccessor interface can't be generic.");
+			return;
+		}
+
+		// Merge the files as at run time, unless one can't be read here.
+		Map<String, String> properties = new HashMap<String, String> ();
+
+		for (String file : files)
+		{
+			if (isOtherSource (file))
+			{
+				processingEnv.getMessager ().printMessage (Diagnostic.Kind.WARNING,
+					"Property file '"+file+"' can't be read at build time, "+
+					"property names are not checked.", type);
+				properties = null;
+				break;
+			}
+
+			ByteBuffer content = read (file);
+
+			if (content == null)
+			{
+				error (type, "Property file '"+file+"' not found, see the '"+
+					PATH_OPTION+"' processor option.");
+				return;
+			}
+			try
+			{
+				PropertyParser.parse (content, properties);
+			}
+			catch (IllegalArgumentException e)
+			{
+				error (type, "Property file '"+file+"' : "+e.getMessage ());
+				return;
+			}
+		}
+
+		Elements elements = processingEnv.getElementUtils ();
+		String packageName = elements.getPackageOf (type).getQualifiedName ().toString ();
+		String className = accessorName (type);
+
+		StringBuilder fields = new StringBuilder ();
+		StringBuilder bindings = new StringBuilder ();
+		StringBuilder methods = new StringBuilder ();
+		boolean valid = true;
+
+		for (ExecutableElement method
+			: ElementFilter.methodsIn (elements.getAllMembers (type)))
+		{
+			if (method.getModifiers ().contains (Modifier.ABSTRACT))
+			{
+				valid &= addMethod (type, method, properties, fields, bindings, methods);
+			}
+		}
+		if (!valid)
+		{
+			return;
+		}
+
+		StringBuilder out = new StringBuilder ();
+
+		if (packageName.length () > 0)
+		{
+			out.append ("package ").append (packageName).append (";\n\n");
+		}
+		out.append ("/**\n")
+			.append (" * Reads the properties of {@link ")
+			.append (type.getQualifiedName ()).append ("}.\n")
+			.append (" * Generated by ").append (getClass ().getName ())
+			.append (", do not edit.\n")
+			.append (" */\n")
+			.append ("@SuppressWarnings({\"rawtypes\", \"unchecked\"})\n")
+			.append (type.getModifiers ().contains (Modifier.PUBLIC) ? "public " : "")
+			.append ("final class ").append (className).append (" implements ")
+			.append (type.getQualifiedName ()).append ("\n{\n")
+			.append ("\t// The property files, in merge order.\n")
+			.append ("\tprivate static final java.lang.String[]\tFILES\t= ")
+			.append (literal (files)).append (";\n\n")
+			.append ("\t// The bound handles, one per method.\n")
+			.append (fields).append ("\n")
+			.append ("\t/**\n")
+			.append ("\t * Get the property files.\n")
+			.append ("\t *\n")
+			.append ("\t * @return\tthe file names, in merge order\n")
+			.append ("\t */\n")
+			.append ("\tpublic static java.lang.String[] getFileNames ()\n")
+			.append ("\t{\n")
+			.append ("\t\treturn FILES.clone ();\n")
+			.append ("\t}\n\n")
+			.append ("\t/**\n")
+			.append ("\t * Construct reading the property files.\n")
+			.append ("\t *\n")
+			.append ("\t * @exception\tjava.io.IOException\ttrying to read a property file\n")
+			.append ("\t */\n")
+			.append ("\tpublic ").append (className).append (" () throws java.io.IOException\n")
+			.append ("\t{\n")
+			.append ("\t\tthis (new com.deetysoft.config.ConfigProperties (FILES.clone ()));\n")
+			.append ("\t}\n\n")
+			.append ("\t/**\n")
+			.append ("\t * Construct reading a ConfigProperties.\n")
+			.append ("\t *\n")
+			.append ("\t * @param\tconfigProperties\tthe properties\n")
+			.append ("\t */\n")
+			.append ("\tpublic ").append (className)
+			.append (" (com.deetysoft.config.ConfigProperties configProperties)\n")
+			.append ("\t{\n")
+			.append (bindings)
+			.append ("\t}\n")
+			.append (methods)
+			.append ("}\n");
+
+		String qualifiedName = packageName.length () > 0 ?
+			packageName+"."+className : className;
+		write (qualifiedName, out, type);
+
+		if (annotation.filesClass ())
+		{
+			generateFilesClass (type, files);
+		}
+	}
+
+	// Add the field, binding and method reading one property.
+	// Return false if the method is not valid.
+	private boolean addMethod (TypeElement type, ExecutableElement method,
+		Map<String, String> properties, StringBuilder fields,
+		StringBuilder bindings, StringBuilder methods)
+	{
+		Types types = processingEnv.getTypeUtils ();
+		String methodName = method.getSimpleName ().toString ();
+
+		if (!method.getParameters ().isEmpty ()
+			|| !method.getTypeParameters ().isEmpty ())
+		{
+			error (method, "A @ConfigAccessor method can't have parameters.");
+			return false;
+		}
+
+		ConfigName configName = method.getAnnotation (ConfigName.class);
+		String name = configName != null ? configName.value ()
+			: type.getAnnotation (ConfigAccessor.class).prefix ()+methodName;
+
+		// The value type of the handle, the class to parse and the reader.
+		TypeMirror returnType = method.getReturnType ();
+		String keyType;
+		Class<?> parseType = null;
+		TypeElement enumType = null;
+		String reader = "get";
+
+		if (returnType.getKind ().isPrimitive ())
+		{
+			switch (returnType.getKind ())
+			{
+				case INT:
+					parseType = int.class;
+					reader = "getInt";
+					break;
+				case LONG:
+					parseType = long.class;
+					reader = "getLong";
+					break;
+				case BOOLEAN:
+					parseType = boolean.class;
+					reader = "getBoolean";
+					break;
+				case DOUBLE:
+					parseType = double.class;
+					reader = "getDouble";
+					break;
+				default:
+					break;
+			}
+			keyType = parseType == null ? null
+				: types.boxedClass ((PrimitiveType) returnType)
+					.getQualifiedName ().toString ();
+		}
+		else if (returnType.getKind () == TypeKind.DECLARED)
+		{
+			TypeElement element = (TypeElement) ((DeclaredType) returnType).asElement ();
+			keyType = element.getQualifiedName ().toString ();
+
+			if (element.getKind () == ElementKind.ENUM)
+			{
+				enumType = element;
+			}
+			else if (DECLARED_TYPES.containsKey (keyType) && isStringList (returnType))
+			{
+				parseType = TypedValue.parseType (DECLARED_TYPES.get (keyType));
+			}
+			else
+			{
+				keyType = null;
+			}
+		}
+		else
+		{
+			keyType = null;
+		}
+
+		if (keyType == null)
+		{
+			error (method, "Unsupported @ConfigAccessor return type "+returnType+
+				", see ConfigKey.");
+			return false;
+		}
+
+		if (properties != null && !check (method, name, properties, parseType, enumType))
+		{
+			return false;
+		}
+
+		fields.append ("\tprivate final com.deetysoft.config.ConfigKey<")
+			.append (keyType).append (">\t").append (methodName).append (";\n");
+
+		bindings.append ("\t\t").append (methodName)
+			.append (" = configProperties.key (").append (literal (name))
+			.append (", ").append (keyType).append (".class);\n");
+
+		methods.append ("\n\tpublic ").append (returnType).append (" ")
+			.append (methodName).append (" ()");
+
+		List<? extends TypeMirror> thrown = method.getThrownTypes ();
+		if (!thrown.isEmpty ())
+		{
+			methods.append ("\n\t\tthrows ");
+			for (int i = 0; i < thrown.size (); i++)
+			{
+				methods.append (i == 0 ? "" : ", ").append (thrown.get (i));
+			}
+		}
+		methods.append ("\n\t{\n");
+
+		String read = "return "+methodName+"."+reader+" ();\n";
+		boolean missingThrown = isThrown (MissingPropertyException.class, thrown);
+		boolean formatThrown = isThrown (StringFormatException.class, thrown);
+
+		if (missingThrown && formatThrown)
+		{
+			methods.append ("\t\t").append (read);
+		}
+		else
+		{
+			methods.append ("\t\ttry\n\t\t{\n\t\t\t").append (read).append ("\t\t}\n");
+			if (!missingThrown)
+			{
+				appendCatch (methods, MissingPropertyException.class);
+			}
+			if (!formatThrown)
+			{
+				appendCatch (methods, StringFormatException.class);
+			}
+		}
+		methods.append ("\t}\n");
+
+		return true;
+	}
+
+	// Check a property is defined and a literal value parses.
+	private boolean check (ExecutableElement method, String name,
+		Map<String, String> properties, Class<?> parseType, TypeElement enumType)
+	{
+		String value = properties.get (name);
+
+		if (value == null)
+		{
+			error (method, "Property '"+name+"' not found in the property files.");
+			return false;
+		}
+
+		// Values with substitutions are only known at run time.
+		if (Template.compile (name, value) != null)
+		{
+			return true;
+		}
+
+		if (enumType != null)
+		{
+			String trimmed = value.trim ();
+
+			for (Element constant : enumType.getEnclosedElements ())
+			{
+				if (constant.getKind () == ElementKind.ENUM_CONSTANT
+					&& constant.getSimpleName ().toString ().equalsIgnoreCase (trimmed))
+				{
+					return true;
+				}
+			}
+			error (method, "The value for property '"+name+"' is not a "+
+				enumType.getSimpleName ()+" : '"+value+"'.");
+			return false;
+		}
+
+		try
+		{
+			TypedValue.parse (name, value, parseType);
+		}
+		catch (StringFormatException e)
+		{
+			error (method, e.getMessage ());
+			return false;
+		}
+		return true;
+	}
+
+	// Write the files class for the default ConfigProperties constructor.
+	private void generateFilesClass (TypeElement type, String[] files)
+		throws IOException
+	{
+		if (filesClassElement != null)
+		{
+			error (type, "Files class already generated for "+
+				filesClassElement.getQualifiedName ()+".");
+			return;
+		}
+		filesClassElement = type;
+
+		String packageName = ConfigProperties.FILES_CLASS.substring
+			(0, ConfigProperties.FILES_CLASS.lastIndexOf ('.'));
+		String className = ConfigProperties.FILES_CLASS.substring
+			(packageName.length ()+1);
+
+		StringBuilder out = new StringBuilder ();
+		out.append ("package ").append (packageName).append (";\n\n")
+			.append ("/**\n")
+			.append (" * The property files of {@link ")
+			.append (type.getQualifiedName ()).append ("}, for the default\n")
+			.append (" * ConfigProperties constructor.\n")
+			.append (" * Generated by ").append (getClass ().getName ())
+			.append (", do not edit.\n")
+			.append (" */\n")
+			.append ("public final class ").append (className)
+			.append ("\n\timplements java.util.concurrent.Callable<java.lang.String[]>\n{\n")
+			.append ("\tpublic static java.lang.String[] getFileNames ()\n")
+			.append ("\t{\n")
+			.append ("\t\treturn new java.lang.String[] ").append (literal (files))
+			.append (";\n")
+			.append ("\t}\n\n")
+			.append ("\tpublic java.lang.String[] call ()\n")
+			.append ("\t{\n")
+			.append ("\t\treturn getFileNames ();\n")
+			.append ("\t}\n")
+			.append ("}\n");
+
+		write (ConfigProperties.FILES_CLASS, out, type);
+	}
+
+	// Read a property file, or return null if not found.
+	private ByteBuffer read (String file) throws IOException
+	{
+		if (file.startsWith (ConfigSources.CLASSPATH_PREFIX))
+		{
+			file = file.substring (ConfigSources.CLASSPATH_PREFIX.length ());
+		}
+
+		File f = new File (file);
+
+		if (f.isAbsolute ())
+		{
+			return f.isFile () ? read (new FileInputStream (f)) : null;
+		}
+
+		String path = processingEnv.getOptions ().get (PATH_OPTION);
+
+		if (path != null)
+		{
+			for (String dir : path.split (File.pathSeparator))
+			{
+				File candidate = new File (dir, file);
+
+				if (candidate.isFile ())
+				{
+					return read (new FileInputStream (candidate));
+				}
+			}
+		}
+
+		for (StandardLocation location : new StandardLocation[]
+			{StandardLocation.CLASS_OUTPUT, StandardLocation.SOURCE_PATH})
+		{
+			InputStream in;
+
+			try
+			{
+				in = processingEnv.getFiler ().getResource (location, "", file)
+					.openInputStream ();
+			}
+			catch (IOException e)
+			{
+				// Ok, not there.
+				continue;
+			}
+			catch (IllegalArgumentException e)
+			{
+				// Ok, location not supported.
+				continue;
+			}
+			return read (in);
+		}
+
+		return f.isFile () ? read (new FileInputStream (f)) : null;
+	}
+
+	private static ByteBuffer read (InputStream in) throws IOException
+	{
+		try
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+			byte[] buffer = new byte [8192];
+			int count;
+
+			while ((count = in.read (buffer)) != -1)
+			{
+				bytes.write (buffer, 0, count);
+			}
+			return ByteBuffer.wrap (bytes.toByteArray ());
+		}
+		finally
+		{
+			in.close ();
+		}
+	}
+
+	private void write (String qualifiedName, CharSequence source,
+		TypeElement origin) throws IOException
+	{
+		Writer writer = processingEnv.getFiler ()
+			.createSourceFile (qualifiedName, origin).openWriter ();
+
+		try
+		{
+			writer.append (source);
+		}
+		finally
+		{
+			writer.close ();
+		}
+	}
+
+	// True if a file name has a source prefix other than 'classpath:'.
+	private static boolean isOtherSource (String file)
+	{
+		int colon = file.indexOf (':');
+
+		// A single letter is a Windows drive.
+		if (colon < 2 || file.startsWith (ConfigSources.CLASSPATH_PREFIX))
+		{
+			return false;
+		}
+		for (int i = 0; i < colon; i++)
+		{
+			if (!Character.isLetter (file.charAt (i)))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// True unless a List has an element type other than String.
+	private boolean isStringList (TypeMirror type)
+	{
+		for (TypeMirror argument : ((DeclaredType) type).getTypeArguments ())
+		{
+			if (!argument.toString ().equals (String.class.getName ()))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// True if an exception is declared by one of the thrown types.
+	private boolean isThrown (Class<?> exception, List<? extends TypeMirror> thrown)
+	{
+		TypeMirror type = processingEnv.getElementUtils ()
+			.getTypeElement (exception.getName ()).asType ();
+
+		for (TypeMirror t : thrown)
+		{
+			if (processingEnv.getTypeUtils ().isSubtype (type, t))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void appendCatch (StringBuilder methods, Class<?> exception)
+	{
+		methods.append ("\t\tcatch (").append (exception.getName ())
+			.append (" e)\n\t\t{\n")
+			.append ("\t\t\tthrow new java.lang.IllegalStateException (e.getMessage (), e);\n")
+			.append ("\t\t}\n");
+	}
+
+	// Get the accessor class name, nested interface names joined by '_'.
+	private static String accessorName (TypeElement type)
+	{
+		String name = type.getSimpleName ().toString ();
+		Element enclosing = type.getEnclosingElement ();
+
+		while (enclosing.getKind ().isClass () || enclosing.getKind ().isInterface ())
+		{
+			name = enclosing.getSimpleName ()+"_"+name;
+			enclosing = enclosing.getEnclosingElement ();
+		}
+		return name+SUFFIX;
+	}
+
+	private String literal (String value)
+	{
+		return processingEnv.getElementUtils ().getConstantExpression (value);
+	}
+
+	private String literal (String[] values)
+	{
+		StringBuilder builder = new StringBuilder ("{");
+
+		for (int i = 0; i < values.length; i++)
+		{
+			builder.append (i == 0 ? "" : ", ").append (literal (values [i]));
+		}
+		return builder.append ("}").toString ();
+	}
+
+	private void error (Element element, String message)
+	{
+		processingEnv.getMessager ().printMessage (Diagnostic.Kind.ERROR,
+			message, element);
+	}
+}
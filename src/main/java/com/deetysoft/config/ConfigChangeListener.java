@@ -0,0 +1,21 @@
+package com.deetysoft.config;
+
+/**
+ * Notified when the expanded value of a property changes.
+ * Register with {@link ConfigProperties#addListener addListener} or
+ * {@link ConfigProperties#addPrefixListener addPrefixListener}.
+ *
+ * @see ConfigProperties
+ */
+public interface ConfigChangeListener
+{
+	/**
+	 * A property value changed.
+	 * A value is null if the property is missing or can't be expanded.
+	 *
+	 * @param	name		the property name
+	 * @param	oldValue	the expanded value before the change
+	 * @param	newValue	the expanded value after the change
+	 */
+	void propertyChanged (String name, String oldValue, String newValue);
+}
@@ -0,0 +1,368 @@
+package com.deetysoft.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
+
+/**
+ * The values of {@link ConfigProperties#ENV_PREFIX 'env.'} references -
+ * the system properties and the OS environment variables.
+ * Both are copied into an immutable map, so expanding a reference is a
+ * lookup with no lock, where {@link System#getProperty} locks the system
+ * properties table.
+ * <p>
+ * When a name is both a system property and an environment variable,
+ * the {@link Precedence} decides which is used.
+ * <p>
+ * The copy is taken again when a ConfigProperties having 'env.'
+ * references is initialized or {@link ConfigProperties#refresh refreshed},
+ * when {@link #refresh refresh} is called, and periodically after
+ * {@link #startRefreshing startRefreshing}.
+ * A name not in the copy is looked up by itself once, so a system property
+ * set since is found; the result is remembered with the copy, up to a
+ * bound.
+ * Values expanded with an 'env.' reference are cached like any other, and
+ * a refresh here that finds a change refreshes the ConfigProperties having
+ * 'env.' references.
+ * Each ConfigProperties expands from the copy taken when its properties
+ * were last replaced, so the values before a change, reported to its
+ * listeners, are expanded from the copy before the change.
+ *
+ * @see ConfigProperties#ENV_PREFIX
+ */
+public final class ConfigEnvironment
+{
+	/**
+	 * Which values are used for a name that is both a system property and
+	 * an environment variable.
+	 */
+	public enum Precedence
+	{
+		/**
+		 * The system property is used, the default.
+		 */
+		SYSTEM_PROPERTIES,
+
+		/**
+		 * The environment variable is used.
+		 */
+		ENVIRONMENT
+	}
+
+	private static final Logger	log	= Logger.getLogger (ConfigEnvironment.class);
+
+	private static volatile Precedence	precedence	= Precedence.SYSTEM_PROPERTIES;
+
+	// The most names looked up by themselves remembered with a copy.
+	private static final int	MAX_LOOKUPS	= 1024;
+
+	// Remembered for a name looked up by itself and not found, compared
+	// by identity.
+	private static final String	NOT_FOUND	= new String ();
+
+	// The values, replaced as a whole.
+	private static volatile Copy	values	= new Copy (read ());
+
+	// The ConfigProperties having 'env.' references, to refresh when the
+	// values change.
+	private static final Map<ConfigProperties, Boolean>	users	=
+		new WeakHashMap<ConfigProperties, Boolean> ();
+
+	// Refreshes the values periodically, made when first needed.
+	private static ScheduledExecutorService	refresher;
+	private static ScheduledFuture<?>		refreshing;
+
+	private ConfigEnvironment ()
+	{
+	}
+
+	/**
+	 * Get the value for a name.
+	 * A name not in the copy is looked up by itself, unless it was not
+	 * found since the copy was taken.
+	 *
+	 * @param	name	the system property or environment variable name
+	 * @return			the value or null if neither is defined
+	 */
+	public static String get (String name)
+	{
+		return values.get (name);
+	}
+
+	/**
+	 * Get the precedence.
+	 *
+	 * @return	the precedence
+	 */
+	public static Precedence getPrecedence ()
+	{
+		return precedence;
+	}
+
+	/**
+	 * Set the precedence and refresh the values.
+	 *
+	 * @param	precedence	the precedence
+	 */
+	public static void setPrecedence (Precedence precedence)
+	{
+		ConfigEnvironment.precedence = precedence;
+		refresh ();
+	}
+
+	/**
+	 * Copy the system properties and environment variables again.
+	 * If any value changed, the ConfigProperties having 'env.' references
+	 * are {@link ConfigProperties#refresh refreshed}.
+	 *
+	 * @return	true if any value changed
+	 */
+	public static boolean refresh ()
+	{
+		if (!update ())
+		{
+			return false;
+		}
+		List<ConfigProperties> list;
+
+		synchronized (users)
+		{
+			list = new ArrayList<ConfigProperties> (users.keySet ());
+		}
+		for (ConfigProperties configProperties : list)
+		{
+			configProperties.environmentChanged ();
+		}
+		return true;
+	}
+
+	/**
+	 * Start refreshing the values periodically, in place of any earlier
+	 * period.
+	 *
+	 * @param	periodMillis	the time between refreshes
+	 */
+	public static synchronized void startRefreshing (long periodMillis)
+	{
+		stopRefreshing ();
+		if (refresher == null)
+		{
+			refresher = Executors.newSingleThreadScheduledExecutor (new ThreadFactory ()
+			{
+				public Thread newThread (Runnable runnable)
+				{
+					Thread thread = new Thread (runnable, "ConfigEnvironment-refresher");
+					thread.setDaemon (true);
+					return thread;
+				}
+			});
+		}
+		refreshing = refresher.scheduleWithFixedDelay (new Runnable ()
+		{
+			public void run ()
+			{
+				try
+				{
+					if (refresh ())
+					{
+						log.info ("System properties or environment changed.");
+					}
+				}
+				catch (RuntimeException e)
+				{
+					log.error ("Exception refreshing the environment :\n" + e);
+				}
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop refreshing the values periodically.
+	 */
+	public static synchronized void stopRefreshing ()
+	{
+		if (refreshing != null)
+		{
+			refreshing.cancel (false);
+			refreshing = null;
+		}
+	}
+
+	/**
+	 * Copy the values again, without refreshing any ConfigProperties.
+	 *
+	 * @return	true if any value changed
+	 */
+	static synchronized boolean update ()
+	{
+		Map<String, String> next = read ();
+
+		if (next.equals (values.values))
+		{
+			values.lookups.clear ();
+			return false;
+		}
+		values = new Copy (next);
+		return true;
+	}
+
+	/**
+	 * Get the current copy of the values.
+	 *
+	 * @return	the copy
+	 */
+	static Copy current ()
+	{
+		return values;
+	}
+
+	/**
+	 * Note a ConfigProperties having 'env.' references, to refresh when the
+	 * values change.
+	 *
+	 * @param	configProperties	the ConfigProperties
+	 */
+	static void register (ConfigProperties configProperties)
+	{
+		synchronized (users)
+		{
+			users.put (configProperties, Boolean.TRUE);
+		}
+	}
+
+	// Look up one name, as the values are copied.
+	private static String lookup (String name)
+	{
+		String system = null;
+		String environment = null;
+
+		// Allow for security exception.
+		try
+		{
+			system = System.getProperty (name);
+		}
+		catch (SecurityException e)
+		{
+			// Ok, not readable.
+		}
+		try
+		{
+			environment = System.getenv (name);
+		}
+		catch (SecurityException e)
+		{
+			// Ok, not readable.
+		}
+
+		if (precedence == Precedence.SYSTEM_PROPERTIES)
+		{
+			return system != null ? system : environment;
+		}
+		return environment != null ? environment : system;
+	}
+
+	/**
+	 * A copy of the values, and the names looked up by themselves since
+	 * it was taken.
+	 */
+	static final class Copy
+	{
+		// The values.
+		final Map<String, String>	values;
+
+		// The names not in the values looked up by themselves, mapped to
+		// the value found or NOT_FOUND.
+		final ConcurrentHashMap<String, String>	lookups	=
+			new ConcurrentHashMap<String, String> ();
+
+		Copy (Map<String, String> values)
+		{
+			this.values = values;
+		}
+
+		/**
+		 * Get the value for a name, see {@link ConfigEnvironment#get}.
+		 *
+		 * @param	name	the system property or environment variable name
+		 * @return			the value or null if neither is defined
+		 */
+		String get (String name)
+		{
+			String value = values.get (name);
+
+			if (value != null)
+			{
+				return value;
+			}
+
+			value = lookups.get (name);
+			if (value != null)
+			{
+				return value == NOT_FOUND ? null : value;
+			}
+
+			value = lookup (name);
+
+			// Bound the names remembered.
+			if (lookups.size () >= MAX_LOOKUPS)
+			{
+				lookups.clear ();
+			}
+			String found = lookups.putIfAbsent (name, value == null ? NOT_FOUND : value);
+			if (found != null)
+			{
+				return found == NOT_FOUND ? null : found;
+			}
+			return value;
+		}
+	}
+
+	// Copy the values.
+	private static Map<String, String> read ()
+	{
+		Map<String, String> system = new HashMap<String, String> ();
+		Properties properties = System.getProperties ();
+
+		for (String name : properties.stringPropertyNames ())
+		{
+			system.put (name, properties.getProperty (name));
+		}
+
+		Map<String, String> environment;
+
+		// Allow for security exception.
+		try
+		{
+			environment = System.getenv ();
+		}
+		catch (SecurityException e)
+		{
+			environment = Collections.emptyMap ();
+		}
+
+		HashMap<String, String> map;
+
+		if (precedence == Precedence.SYSTEM_PROPERTIES)
+		{
+			map = new HashMap<String, String> (environment);
+			map.putAll (system);
+		}
+		else
+		{
+			map = new HashMap<String, String> (system);
+			map.putAll (environment);
+		}
+		return Collections.unmodifiableMap (map);
+	}
+}
@@ -0,0 +1,248 @@
+package com.deetysoft.config;
+
+/**
+ * A handle bound to one property and parsed to one type.
+ * Get a handle from {@link ConfigProperties#key ConfigProperties.key}
+ * once, then read it as often as needed.
+ * The value is parsed when the handle is bound and again only when the
+ * property changes, so a read is a field access with no lookup, parsing
+ * or allocation, and a check whether {@link ConfigMetrics} count it.
+ * <p>
+ * The supported types are String, Integer, Long, Boolean, Double,
+ * {@link java.time.Duration}, {@link java.util.List} and enum classes,
+ * parsed as by the typed accessors of {@link ConfigProperties}.
+ * The primitive readers such as {@link #getInt getInt} avoid unboxing.
+ * <p>
+ * A handle may be bound before its property is defined.
+ * Reading it then throws the error found when it was last bound.
+ * <p>
+ * In a {@link ConfigScope} that overrides the property, the value is read
+ * from the scope instead.
+ *
+ * @param	<T>	the value type
+ * @see			ConfigProperties#key
+ */
+public final class ConfigKey<T>
+{
+	// The properties the handle is bound to.
+	private final ConfigProperties	configProperties;
+
+	// The property name.
+	private final String	name;
+
+	// The value type.
+	private final Class<T>	type;
+
+	// The type to parse, a primitive class for the number and boolean types.
+	private final Class<?>	parseType;
+
+	// The current TypedValue, or the exception binding it.
+	private volatile Object	current;
+
+	ConfigKey (ConfigProperties configProperties, String name, Class<T> type)
+	{
+		this.configProperties = configProperties;
+		this.name = name;
+		this.type = type;
+		this.parseType = TypedValue.parseType (type);
+	}
+
+	/**
+	 * Get the property name.
+	 *
+	 * @return	the name
+	 */
+	public String getName ()
+	{
+		return name;
+	}
+
+	/**
+	 * Get the value type.
+	 *
+	 * @return	the type
+	 */
+	public Class<T> getType ()
+	{
+		return type;
+	}
+
+	/**
+	 * Get the current value.
+	 *
+	 * @return			the value
+	 * @exception		MissingPropertyException
+	 *					if property or any nested property not found
+	 * @exception		StringFormatException
+	 *					if the value can't be expanded or parsed
+	 */
+	public T get ()
+		throws MissingPropertyException, StringFormatException
+	{
+		return type.cast (value ().objectValue);
+	}
+
+	/**
+	 * Get the current value of an Integer handle.
+	 *
+	 * @return			the value
+	 * @exception		MissingPropertyException
+	 *					if property or any nested property not found
+	 * @exception		StringFormatException
+	 *					if the value can't be expanded or is not an int
+	 * @exception		IllegalStateException
+	 *					if the handle is not for Integer
+	 */
+	public int getInt ()
+		throws MissingPropertyException, StringFormatException
+	{
+		checkType (int.class);
+		return (int) value ().longValue;
+	}
+
+	/**
+	 * Get the current value of a Long or Integer handle.
+	 *
+	 * @return			the value
+	 * @exception		MissingPropertyException
+	 *					if property or any nested property not found
+	 * @exception		StringFormatException
+	 *					if the value can't be expanded or is not a long
+	 * @exception		IllegalStateException
+	 *					if the handle is not for Long or Integer
+	 */
+	public long getLong ()
+		throws MissingPropertyException, StringFormatException
+	{
+		if (parseType != int.class)
+		{
+			checkType (long.class);
+		}
+		return value ().longValue;
+	}
+
+	/**
+	 * Get the current value of a Boolean handle.
+	 *
+	 * @return			the value
+	 * @exception		MissingPropertyException
+	 *					if property or any nested property not found
+	 * @exception		StringFormatException
+	 *					if the value can't be expanded or is not a boolean
+	 * @exception		IllegalStateException
+	 *					if the handle is not for Boolean
+	 */
+	public boolean getBoolean ()
+		throws MissingPropertyException, StringFormatException
+	{
+		checkType (boolean.class);
+		return value ().longValue != 0;
+	}
+
+	/**
+	 * Get the current value of a Double handle.
+	 *
+	 * @return			the value
+	 * @exception		MissingPropertyException
+	 *					if property or any nested property not found
+	 * @exception		StringFormatException
+	 *					if the value can't be expanded or is not a double
+	 * @exception		IllegalStateException
+	 *					if the handle is not for Double
+	 */
+	public double getDouble ()
+		throws MissingPropertyException, StringFormatException
+	{
+		checkType (double.class);
+		return value ().doubleValue;
+	}
+
+	public String toString ()
+	{
+		return "ConfigKey("+name+", "+type.getSimpleName ()+")";
+	}
+
+	/**
+	 * Parse the value from a snapshot.
+	 * Called when the handle is created and when the property changes.
+	 *
+	 * @param	snapshot	the snapshot
+	 */
+	void bind (Snapshot snapshot)
+	{
+		try
+		{
+			current = snapshot.getTyped (name, parseType).boxed ();
+		}
+		catch (MissingPropertyException e)
+		{
+			current = e;
+		}
+		catch (StringFormatException e)
+		{
+			current = e;
+		}
+	}
+
+	// Get the current value or throw the error binding it, counting the
+	// read if metrics are enabled.
+	// A value overridden in the current scope is parsed on each read.
+	private TypedValue value ()
+		throws MissingPropertyException, StringFormatException
+	{
+		ConfigMetrics m = configProperties.getMetrics ();
+
+		if (m == null)
+		{
+			return currentValue ();
+		}
+		m.read (name);
+		try
+		{
+			return currentValue ();
+		}
+		catch (MissingPropertyException e)
+		{
+			m.missing (name);
+			throw e;
+		}
+	}
+
+	// Get the current value or throw the error binding it.
+	private TypedValue currentValue ()
+		throws MissingPropertyException, StringFormatException
+	{
+		ConfigScope scope = ConfigScope.current ();
+
+		if (scope != null)
+		{
+			ConfigOverlay overlay = scope.overlay (configProperties);
+
+			if (overlay.isAffected (name))
+			{
+				return overlay.getTyped (name, parseType).boxed ();
+			}
+		}
+
+		Object c = current;
+
+		if (c instanceof TypedValue)
+		{
+			return (TypedValue) c;
+		}
+		if (c instanceof MissingPropertyException)
+		{
+			throw (MissingPropertyException) c;
+		}
+		throw (StringFormatException) c;
+	}
+
+	private void checkType (Class<?> expected)
+	{
+		if (parseType != expected)
+		{
+			throw new IllegalStateException
+				("Key for property '"+name+"' is not a "+expected+" key.");
+		}
+	}
+}
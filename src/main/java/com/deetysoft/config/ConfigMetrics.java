@@ -0,0 +1,320 @@
+package com.deetysoft.config;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counts the reads of a {@link ConfigProperties}, times its expansions and
+ * loads, and publishes them through JMX.
+ * Get one from {@link ConfigProperties#enableMetrics enableMetrics}.
+ * <p>
+ * Counters are {@link LongAdder}s, so threads reading the same property
+ * do not contend.
+ * Reads through {@link ConfigKey} handles and
+ * {@link ConfigProperties#getAll(java.util.Collection) getAll} are counted
+ * as well.
+ * At most {@link #MAX_NAMES} names are counted separately for reads and
+ * for missing properties, and further names under {@link #OTHER}, so
+ * reading names built at run time does not grow the counts without bound.
+ * When metrics are not enabled, a read checks a single field.
+ *
+ * @see ConfigMetricsMXBean
+ */
+public final class ConfigMetrics implements ConfigMetricsMXBean
+{
+	// The JMX domain.
+	private static final String	DOMAIN	= "com.deetysoft.config";
+
+	// The expansion time histogram buckets, doubling from 1 microsecond.
+	private static final int	BUCKETS	= 22;
+
+	/**
+	 * The most property names counted separately - 1024.
+	 */
+	public static final int	MAX_NAMES	= 1024;
+
+	/**
+	 * The name counting the reads of names past {@link #MAX_NAMES} -
+	 * "(other)".
+	 */
+	public static final String	OTHER	= "(other)";
+
+	private final ConfigProperties	configProperties;
+
+	// The counts by property name.
+	private final ConcurrentHashMap<String, LongAdder>	reads	=
+		new ConcurrentHashMap<String, LongAdder> ();
+	private final ConcurrentHashMap<String, LongAdder>	missing	=
+		new ConcurrentHashMap<String, LongAdder> ();
+
+	// The expansion count by bucket and the total time.
+	private final LongAdder[]	histogram	= new LongAdder [BUCKETS];
+	private final LongAdder		expansionNanos	= new LongAdder ();
+
+	// The name registered with JMX, or null.
+	private ObjectName	objectName;
+
+	ConfigMetrics (ConfigProperties configProperties)
+	{
+		this.configProperties = configProperties;
+
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			histogram [i] = new LongAdder ();
+		}
+	}
+
+	/**
+	 * Register with the platform MBean server, as
+	 * 'com.deetysoft.config:type=ConfigProperties,name=<i>name</i>'.
+	 *
+	 * @param		name			the name
+	 * @return						the object name
+	 * @exception	JMException		registering
+	 */
+	public synchronized ObjectName register (String name) throws JMException
+	{
+		unregister ();
+
+		ObjectName on = new ObjectName (DOMAIN+":type=ConfigProperties,name="+
+			ObjectName.quote (name));
+		ManagementFactory.getPlatformMBeanServer ().registerMBean (this, on);
+		objectName = on;
+		return on;
+	}
+
+	/**
+	 * Unregister from the platform MBean server, if registered.
+	 *
+	 * @exception	JMException		unregistering
+	 */
+	public synchronized void unregister () throws JMException
+	{
+		if (objectName != null)
+		{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer ();
+
+			if (server.isRegistered (objectName))
+			{
+				server.unregisterMBean (objectName);
+			}
+			objectName = null;
+		}
+	}
+
+	/**
+	 * Count a read.
+	 *
+	 * @param	name	the property name
+	 */
+	void read (String name)
+	{
+		count (reads, name);
+	}
+
+	/**
+	 * Count a read failing because a property was not found.
+	 *
+	 * @param	name	the property name read
+	 */
+	void missing (String name)
+	{
+		count (missing, name);
+	}
+
+	/**
+	 * Record the time to expand a value.
+	 *
+	 * @param	nanos	the time in nanoseconds
+	 */
+	void expanded (long nanos)
+	{
+		long micros = nanos/1000;
+		int bucket = micros == 0 ? 0
+			: Math.min (64-Long.numberOfLeadingZeros (micros), BUCKETS-1);
+
+		histogram [bucket].increment ();
+		expansionNanos.add (nanos);
+	}
+
+	private static void count (ConcurrentHashMap<String, LongAdder> counts,
+		String name)
+	{
+		LongAdder adder = counts.get (name);
+
+		if (adder == null)
+		{
+			// Names past the limit share one count. Threads adding names
+			// at once may pass the limit by a few.
+			if (counts.size () >= MAX_NAMES)
+			{
+				name = OTHER;
+				adder = counts.get (name);
+			}
+		}
+		if (adder == null)
+		{
+			LongAdder added = new LongAdder ();
+
+			adder = counts.putIfAbsent (name, added);
+			if (adder == null)
+			{
+				adder = added;
+			}
+		}
+		adder.increment ();
+	}
+
+	public int getKeyCount ()
+	{
+		return configProperties.snapshot.properties.size ();
+	}
+
+	public long getLastLoadTime ()
+	{
+		return configProperties.lastLoadTime;
+	}
+
+	public long getLastLoadMillis ()
+	{
+		return TimeUnit.NANOSECONDS.toMillis (configProperties.lastLoadNanos);
+	}
+
+	public Map<String, Long> getFileLoadMillis ()
+	{
+		Map<String, Long> map = new LinkedHashMap<String, Long> ();
+
+		for (PropertyFile file : configProperties.getFiles ())
+		{
+			map.put (file.location, TimeUnit.NANOSECONDS.toMillis (file.loadNanos));
+		}
+		return map;
+	}
+
+	public Map<String, Long> getReadCounts ()
+	{
+		return sums (reads);
+	}
+
+	public Map<String, Long> getTopReadCounts (int count)
+	{
+		List<Map.Entry<String, Long>> entries =
+			new ArrayList<Map.Entry<String, Long>> (sums (reads).entrySet ());
+
+		Collections.sort (entries, new Comparator<Map.Entry<String, Long>> ()
+		{
+			public int compare (Map.Entry<String, Long> a, Map.Entry<String, Long> b)
+			{
+				return b.getValue ().compareTo (a.getValue ());
+			}
+		});
+
+		Map<String, Long> top = new LinkedHashMap<String, Long> ();
+		for (Map.Entry<String, Long> entry
+			: entries.subList (0, Math.min (count, entries.size ())))
+		{
+			top.put (entry.getKey (), entry.getValue ());
+		}
+		return top;
+	}
+
+	public long getReadCount ()
+	{
+		return total (reads);
+	}
+
+	public Map<String, Long> getMissingCounts ()
+	{
+		return sums (missing);
+	}
+
+	public long getMissingCount ()
+	{
+		return total (missing);
+	}
+
+	public long getExpansionCount ()
+	{
+		long count = 0;
+
+		for (LongAdder adder : histogram)
+		{
+			count += adder.sum ();
+		}
+		return count;
+	}
+
+	public double getMeanExpansionMicros ()
+	{
+		long count = getExpansionCount ();
+
+		return count == 0 ? 0 : expansionNanos.sum ()/1000.0/count;
+	}
+
+	public long[] getExpansionHistogramBounds ()
+	{
+		long[] bounds = new long [BUCKETS-1];
+
+		for (int i = 0; i < bounds.length; i++)
+		{
+			bounds [i] = 1000L << i;
+		}
+		return bounds;
+	}
+
+	public long[] getExpansionHistogram ()
+	{
+		long[] counts = new long [BUCKETS];
+
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			counts [i] = histogram [i].sum ();
+		}
+		return counts;
+	}
+
+	public void reset ()
+	{
+		reads.clear ();
+		missing.clear ();
+		for (LongAdder adder : histogram)
+		{
+			adder.reset ();
+		}
+		expansionNanos.reset ();
+	}
+
+	private static Map<String, Long> sums (Map<String, LongAdder> counts)
+	{
+		Map<String, Long> map = new HashMap<String, Long> ();
+
+		for (Map.Entry<String, LongAdder> entry : counts.entrySet ())
+		{
+			map.put (entry.getKey (), entry.getValue ().sum ());
+		}
+		return map;
+	}
+
+	private static long total (Map<String, LongAdder> counts)
+	{
+		long total = 0;
+
+		for (LongAdder adder : counts.values ())
+		{
+			total += adder.sum ();
+		}
+		return total;
+	}
+}
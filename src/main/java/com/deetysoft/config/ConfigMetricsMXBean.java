@@ -0,0 +1,117 @@
+package com.deetysoft.config;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link ConfigMetrics}.
+ *
+ * @see ConfigMetrics#register ConfigMetrics.register
+ */
+public interface ConfigMetricsMXBean
+{
+	/**
+	 * Get the number of properties.
+	 *
+	 * @return	the count
+	 */
+	int getKeyCount ();
+
+	/**
+	 * Get the time of the last init or reload.
+	 *
+	 * @return	the time in milliseconds since the epoch, 0 if none
+	 */
+	long getLastLoadTime ();
+
+	/**
+	 * Get how long the last init or reload took.
+	 *
+	 * @return	the duration in milliseconds
+	 */
+	long getLastLoadMillis ();
+
+	/**
+	 * Get how long each property file took to read when last loaded.
+	 *
+	 * @return	the durations in milliseconds by file location
+	 */
+	Map<String, Long> getFileLoadMillis ();
+
+	/**
+	 * Get the number of reads of each property since enabled or reset,
+	 * including reads through {@link ConfigKey} handles and getAll.
+	 * Past {@link ConfigMetrics#MAX_NAMES} names, the reads of other names
+	 * are counted together under {@link ConfigMetrics#OTHER}.
+	 *
+	 * @return	the counts by property name
+	 */
+	Map<String, Long> getReadCounts ();
+
+	/**
+	 * Get the most read properties.
+	 *
+	 * @param	count	the number of properties
+	 * @return			the counts by property name
+	 */
+	Map<String, Long> getTopReadCounts (int count);
+
+	/**
+	 * Get the total number of reads.
+	 *
+	 * @return	the count
+	 */
+	long getReadCount ();
+
+	/**
+	 * Get the number of reads failing because a property, or a property
+	 * it refers to, was not found.
+	 * Past {@link ConfigMetrics#MAX_NAMES} names, the other names are
+	 * counted together under {@link ConfigMetrics#OTHER}.
+	 *
+	 * @return	the counts by the property name read
+	 */
+	Map<String, Long> getMissingCounts ();
+
+	/**
+	 * Get the total number of reads failing because a property was not
+	 * found.
+	 *
+	 * @return	the count
+	 */
+	long getMissingCount ();
+
+	/**
+	 * Get the number of values expanded.
+	 * Cached values are not expanded again.
+	 *
+	 * @return	the count
+	 */
+	long getExpansionCount ();
+
+	/**
+	 * Get the mean time to expand a value.
+	 *
+	 * @return	the time in microseconds
+	 */
+	double getMeanExpansionMicros ();
+
+	/**
+	 * Get the upper bounds of the expansion time histogram buckets.
+	 * The last bucket has no upper bound.
+	 *
+	 * @return	the bounds in nanoseconds
+	 */
+	long[] getExpansionHistogramBounds ();
+
+	/**
+	 * Get the expansion time histogram.
+	 *
+	 * @return	the number of expansions in each bucket
+	 */
+	long[] getExpansionHistogram ();
+
+	/**
+	 * Clear the counts and the histogram.
+	 */
+	void reset ();
+}
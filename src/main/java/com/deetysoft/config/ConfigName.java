@@ -0,0 +1,25 @@
+package com.deetysoft.config;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Names the property read by a method of a {@link ConfigAccessor}
+ * interface.
+ * The name is used as is, without the interface's prefix.
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.METHOD)
+public @interface ConfigName
+{
+	/**
+	 * The property name.
+	 *
+	 * @return	the name
+	 */
+	String value ();
+}
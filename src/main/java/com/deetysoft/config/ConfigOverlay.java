@@ -0,0 +1,412 @@
+package com.deetysoft.config;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A layer of properties over a {@link ConfigProperties}, such as the few
+ * properties one tenant overrides in a large shared configuration.
+ * The base properties are shared, not copied, so an overlay holds only
+ * its own properties and the expansions they change.
+ * <p>
+ * A property is found in the top layer first, then in each layer below,
+ * then in the base.
+ * References are expanded in the overlay, so a base value referring to
+ * an overridden property expands with the overriding value.
+ * A base property not affected by any override is read from the base,
+ * sharing its expansion cache.
+ * <p>
+ * An overlay is a view, so it sees the base properties after each
+ * {@link ConfigProperties#init init} or reload.
+ * Get one from {@link ConfigProperties#overlay ConfigProperties.overlay},
+ * and stack another layer on it with {@link #overlay overlay}.
+ *
+ * @see ConfigProperties
+ */
+public final class ConfigOverlay
+{
+	// The shared base properties.
+	private final ConfigProperties	base;
+
+	// The layer below this one, or null if over the base.
+	private final ConfigOverlay		parent;
+
+	// The properties of this layer, a CompactMap.
+	private final Map<String, String>	layer;
+
+	// The expansions for the current base snapshot.
+	private volatile View	view;
+
+	ConfigOverlay (ConfigProperties base, ConfigOverlay parent,
+		Map<String, String> properties)
+	{
+		this.base = base;
+		this.parent = parent;
+		layer = CompactMap.of (properties);
+	}
+
+	/**
+	 * Get the base properties.
+	 *
+	 * @return	the base
+	 */
+	public ConfigProperties getBase ()
+	{
+		return base;
+	}
+
+	/**
+	 * Get the properties of this layer.
+	 *
+	 * @return	an unmodifiable map of the unexpanded values
+	 */
+	public Map<String, String> getLayer ()
+	{
+		return layer;
+	}
+
+	/**
+	 * Stack another layer on this one.
+	 *
+	 * @param	properties	the properties overriding this overlay's
+	 * @return				the new overlay
+	 */
+	public ConfigOverlay overlay (Map<String, String> properties)
+	{
+		return new ConfigOverlay (base, this, properties);
+	}
+
+	/**
+	 * Get the value for the given property, expanding if necessary.
+	 * See {@link ConfigProperties#get(String)}.
+	 *
+	 * @param	name	the property name
+	 * @return			the value
+	 * @exception		MissingPropertyException
+	 *					if property or any nested property not found
+	 * @exception		StringFormatException
+	 *					if property value has unmatched substitution
+	 *					delimiters or a substitution cycle
+	 */
+	public String get (String name)
+		throws MissingPropertyException, StringFormatException
+	{
+		return getView ().get (name);
+	}
+
+	/**
+	 * Get the value for the given property with run-time args.
+	 * See {@link ConfigProperties#get(String, String[])}.
+	 *
+	 * @param	name	the property name
+	 * @param	args	the run-time args
+	 * @return			the value
+	 * @exception		MissingPropertyException
+	 *					if property or any nested property not found
+	 * @exception		StringFormatException
+	 *					if property value has unmatched substitution
+	 *					delimiters or a substitution cycle
+	 */
+	public String get (String name, String[] args)
+		throws MissingPropertyException, StringFormatException
+	{
+		return getView ().get (name, args);
+	}
+
+	/**
+	 * Append the value for the given property.
+	 * See {@link ConfigProperties#appendTo(String, Appendable)}.
+	 *
+	 * @param	name	the property name
+	 * @param	out		where to append the value
+	 * @exception		MissingPropertyException
+	 *					if property or any nested property not found
+	 * @exception		StringFormatException
+	 *					if property value has unmatched substitution
+	 *					delimiters or a substitution cycle
+	 * @exception		IOException
+	 *					appending to out
+	 */
+	void appendTo (String name, Appendable out)
+		throws MissingPropertyException, StringFormatException, IOException
+	{
+		getView ().appendTo (name, out);
+	}
+
+	/**
+	 * Get the expanded value compiled for run-time args.
+	 *
+	 * @param	name	the property name
+	 * @return			the format
+	 * @exception		MissingPropertyException
+	 *					if property or any nested property not found
+	 * @exception		StringFormatException
+	 *					if property value has unmatched substitution
+	 *					delimiters or a substitution cycle
+	 */
+	ArgumentFormat getFormat (String name)
+		throws MissingPropertyException, StringFormatException
+	{
+		return getView ().getFormat (name);
+	}
+
+	/**
+	 * Get the value for the given property without expanding.
+	 *
+	 * @param	name	the property name
+	 * @return			the value
+	 * @exception		MissingPropertyException
+	 *					if property not found
+	 */
+	public String getUnexpanded (String name)
+		throws MissingPropertyException
+	{
+		String value = find (name);
+
+		return value != null ? value : base.snapshot.getUnexpanded (name);
+	}
+
+	/**
+	 * Check whether a property is overridden or refers to an overridden
+	 * property, so that its value may differ from the base.
+	 *
+	 * @param	name	the property name
+	 * @return			true if affected
+	 */
+	boolean isAffected (String name)
+	{
+		return getView ().affected.contains (name);
+	}
+
+	/**
+	 * Get the expanded value parsed to a type.
+	 * See {@link Snapshot#getTyped Snapshot.getTyped}.
+	 *
+	 * @param	name	the property name
+	 * @param	type	the type
+	 * @return			the parsed value
+	 * @exception		MissingPropertyException
+	 *					if property or any nested property not found
+	 * @exception		StringFormatException
+	 *					if the value can't be expanded or parsed
+	 */
+	TypedValue getTyped (String name, Class<?> type)
+		throws MissingPropertyException, StringFormatException
+	{
+		View v = getView ();
+
+		if (!v.affected.contains (name))
+		{
+			return v.snapshot.getTyped (name, type);
+		}
+		return TypedValue.parse (name, v.get (name), type);
+	}
+
+	// Find a property in the layers, from the top down, or null.
+	private String find (String name)
+	{
+		for (ConfigOverlay o = this; o != null; o = o.parent)
+		{
+			String value = o.layer.get (name);
+
+			if (value != null)
+			{
+				return value;
+			}
+		}
+		return null;
+	}
+
+	// Get the view of the current base snapshot, making a new one after
+	// the base changes.
+	private View getView ()
+	{
+		Snapshot snapshot = base.snapshot;
+		View v = view;
+
+		if (v == null || v.snapshot != snapshot)
+		{
+			v = new View (snapshot);
+			view = v;
+		}
+		return v;
+	}
+
+	/**
+	 * The expansions of the overlay over one base snapshot.
+	 * Only the properties whose expansion differs from the base are
+	 * compiled and cached here.
+	 */
+	private final class View implements Template.Resolver
+	{
+		// The base snapshot.
+		final Snapshot	snapshot;
+
+		// The overridden properties and those referring to them,
+		// directly or through other references.
+		private final Set<String>	affected;
+
+		// The compiled values having substitutions, of the affected
+		// properties.
+		private final Map<String, Template>	templates;
+
+		// The cycles among the affected properties.
+		private final DependencyGraph	graph;
+
+		// The expanded values and argument formats of the affected
+		// properties.
+		private final ConcurrentHashMap<String, String>	expanded	=
+			new ConcurrentHashMap<String, String> ();
+		private final ConcurrentHashMap<String, ArgumentFormat>	formats	=
+			new ConcurrentHashMap<String, ArgumentFormat> ();
+
+		View (Snapshot snapshot)
+		{
+			this.snapshot = snapshot;
+
+			Set<String> overridden = new HashSet<String> ();
+			for (ConfigOverlay o = ConfigOverlay.this; o != null; o = o.parent)
+			{
+				overridden.addAll (o.layer.keySet ());
+			}
+			affected = snapshot.getFullGraph ().getDependents (overridden);
+
+			HashMap<String, Template> t = new HashMap<String, Template> ();
+			for (String name : affected)
+			{
+				String value = find (name);
+				Template template = null;
+
+				if (value == null)
+				{
+					value = snapshot.properties.get (name);
+					template = snapshot.templates.get (name);
+				}
+				if (template == null && value != null)
+				{
+					template = Template.compile (name, value);
+				}
+				if (template != null)
+				{
+					t.put (name, template);
+				}
+			}
+			templates = Collections.unmodifiableMap (t);
+			graph = new DependencyGraph (templates);
+		}
+
+		String get (String name)
+			throws MissingPropertyException, StringFormatException
+		{
+			if (!affected.contains (name))
+			{
+				return snapshot.get (name);
+			}
+
+			String value = expanded.get (name);
+
+			if (value != null)
+			{
+				return value;
+			}
+
+			value = find (name);
+
+			if (value == null)
+			{
+				value = snapshot.getUnexpanded (name);
+			}
+
+			Template template = templates.get (name);
+
+			// A value with no substitutions is its own expansion.
+			if (template == null)
+			{
+				return value;
+			}
+
+			checkCycle (name);
+
+			value = template.expand (this);
+
+			expanded.put (name, value);
+
+			return value;
+		}
+
+		public void appendTo (String name, Appendable out)
+			throws MissingPropertyException, StringFormatException, IOException
+		{
+			if (!affected.contains (name))
+			{
+				snapshot.appendTo (name, out);
+				return;
+			}
+
+			String value = expanded.get (name);
+			Template template = templates.get (name);
+
+			if (value == null && template != null)
+			{
+				checkCycle (name);
+				template.appendTo (this, out);
+				return;
+			}
+			out.append (value != null ? value : get (name));
+		}
+
+		private void checkCycle (String name)
+			throws StringFormatException
+		{
+			String cycle = graph.cycles.get (name);
+
+			if (cycle != null)
+			{
+				throw new StringFormatException
+					("The value for property '"+name+"' has a substitution cycle :\n'"+
+					 cycle+"'.");
+			}
+		}
+
+		String get (String name, String[] args)
+			throws MissingPropertyException, StringFormatException
+		{
+			return getFormat (name).format (args);
+		}
+
+		ArgumentFormat getFormat (String name)
+			throws MissingPropertyException, StringFormatException
+		{
+			if (!affected.contains (name))
+			{
+				return snapshot.getFormat (name);
+			}
+
+			ArgumentFormat format = formats.get (name);
+
+			if (format == null)
+			{
+				format = ArgumentFormat.compile (get (name));
+				formats.put (name, format);
+			}
+			return format;
+		}
+
+		public String resolve (String name)
+			throws MissingPropertyException, StringFormatException
+		{
+			return get (name);
+		}
+
+		public String resolveEnv (String name)
+			throws MissingPropertyException
+		{
+			return snapshot.resolveEnv (name);
+		}
+	}
+}
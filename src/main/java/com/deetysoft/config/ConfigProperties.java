@@ -1,18 +1,32 @@
 package com.deetysoft.config;
 
-import com.deetysoft.util.TokenIndexRetriever;
-
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.lang.reflect.Method;
-import java.text.MessageFormat;
-import java.util.Enumeration;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Properties;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
 import org.apache.log4j.Logger;
 
 /**
@@ -34,10 +48,30 @@ import org.apache.log4j.Logger;
  * <p>
  * In this case, p2's value after substitution is "p1 value is blee."
  * Substitutions may be nested to any level.
+ * A substitution may not refer back to the property itself, directly or
+ * through other substitutions.
  * If the name of the property to be substituted begins with 'env.',
- * ConfigProperties looks for a system property to substitute.
+ * ConfigProperties looks for a system property or environment variable
+ * to substitute.
  * See {@link #ENV_PREFIX ENV_PREFIX} for details.
  * <p>
+ * Expanded values are cached per property name.
+ * The cache is dropped when {@link #init init} merges new files and
+ * when {@link #refresh refresh} is called.
+ * Call refresh after changing a system property referenced with 'env.',
+ * or see {@link ConfigEnvironment} for periodic refreshes.
+ * For frequent reads of one property, bind a {@link ConfigKey} once with
+ * {@link #key key} and read through it.
+ * To generate a class of such reads from an interface, with the property
+ * names checked at build time, see {@link ConfigAccessor}.
+ * <p>
+ * ConfigProperties is safe for concurrent use.
+ * Reads do not lock and always see the properties either before or after
+ * an init, never a partial merge.
+ * To override properties on one thread only, open a {@link ConfigScope}.
+ * To count reads and time expansions and loads, through JMX if wanted,
+ * call {@link #enableMetrics enableMetrics}.
+ * <p>
  * ConfigProperties also supports arguments when requesting a property value.
  * For example, when the property:
  * <p>
@@ -58,6 +92,10 @@ public class ConfigProperties
 	 * public static String[] getFileNames ()
 	 * </pre>
 	 * to provide the file name list.
+	 * A class that also implements Callable&lt;String[]&gt;, as one
+	 * generated by {@link ConfigAccessorProcessor} does, is instantiated
+	 * and called directly, otherwise getFileNames is called through
+	 * reflection.
      */
 	public static final String	FILES_CLASS	=
 		"com.deetysoft.config.ConfigPropertiesFiles";
@@ -68,9 +106,13 @@ public class ConfigProperties
 	public static final String	DEFAULT_FILE	= "config.properties";
 
 	/**
-	 * The prefix 'env.' for substitution strings denotes a system property.
+	 * The prefix 'env.' for substitution strings denotes a system property
+	 * or environment variable.
 	 * For example: home=%env.HOME% sets the property named 'home'
-	 * to have the value of the HOME system property.
+	 * to have the value of the HOME environment variable.
+	 * The values are read from a copy kept by {@link ConfigEnvironment},
+	 * which also decides between a system property and an environment
+	 * variable of the same name.
 	 */
 	public static final String	ENV_PREFIX			= "env.";
 
@@ -89,14 +131,75 @@ public class ConfigProperties
 	 */
 	public static final char	SUBSTITUTION_TOKEN	= '%';
 
+	// Reads property files for init, unless set otherwise.
+	// Threads are created as needed and end when idle.
+	private static final Executor	defaultLoadExecutor	=
+		Executors.newCachedThreadPool (new ThreadFactory ()
+		{
+			public Thread newThread (Runnable runnable)
+			{
+				Thread thread = new Thread (runnable, "ConfigProperties-loader");
+				thread.setDaemon (true);
+				return thread;
+			}
+		});
+
 	// The default property file list.
 	protected static String[]		defaultList		= {DEFAULT_FILE};
 
-	// The merged properties
-	protected HashMap<String, String>	properties	= new HashMap<String, String> ();
+	// The merged properties and their caches.
+	// Replaced, never modified, so readers need no lock.
+	protected volatile Snapshot	snapshot	= Snapshot.EMPTY;
 
 	protected Logger log = null;
 
+	// The files read by init, in merge order.
+	private final List<PropertyFile>	files	= new ArrayList<PropertyFile> ();
+
+	// The names given to init, in merge order, including those that
+	// found no files.
+	private final List<String>	fileNames	= new ArrayList<String> ();
+
+	// The registered listeners.
+	private final List<Registration>	registrations	=
+		new CopyOnWriteArrayList<Registration> ();
+
+	// The bound handles.
+	private final List<ConfigKey<?>>	keys	=
+		new CopyOnWriteArrayList<ConfigKey<?>> ();
+
+	// Runs the listeners.
+	private volatile Executor	listenerExecutor	= new Executor ()
+	{
+		public void execute (Runnable command)
+		{
+			command.run ();
+		}
+	};
+
+	// Reads property files for init.
+	private volatile Executor	loadExecutor	= defaultLoadExecutor;
+
+	// True when read-only.
+	private volatile boolean	frozen;
+
+	// The read counts and timings, or null when not enabled.
+	private volatile ConfigMetrics	metrics;
+
+	// The time of the last init or reload, and how long it took.
+	volatile long	lastLoadTime;
+	volatile long	lastLoadNanos;
+
+	// The file watcher when reloading, otherwise null.
+	private Reloader	reloader;
+	private long		debounceMillis;
+	private long		pollMillis;
+
+	// The file names source of FILES_CLASS once found, otherwise null.
+	// A class not found is looked for again, since it may be made
+	// available later.
+	private static volatile Callable<String[]>	filesSource;
+
 	/**
 	 * The default constructor.
 	 * <p>
@@ -109,7 +212,12 @@ public class ConfigProperties
 	 * {@link #FILES_CLASS}.
 	 * It is not part of the distributed package but may be defined by the
 	 * application as an alternative to using the system
-	 * property or default file. 
+	 * property or default file, or generated from a {@link ConfigAccessor}
+	 * interface.
+	 * Once found, the class is kept; while it is not found, it is looked
+	 * up again by each construction.
+	 * A class implementing Callable is called directly, otherwise its
+	 * getFileNames method is called through reflection.
 	 * <p>
 	 * 3. If neither FILES_PROPERTY or FILES_CLASS is 
 	 * defined then try to load
@@ -161,24 +269,24 @@ public class ConfigProperties
 		{
 			String[] names = null;
 
-			// Try to instantiate the config files class.
-			try
-			{
-				Class<?> class_ = Class.forName (FILES_CLASS);
-
-				Method method = class_.getMethod ("getFileNames", (Class[])null);
-
-				names = (String[]) method.invoke (null, (Object[])null);
-			}
-			catch (Exception e)
+			// Call the config files class, if there is one.
+			Callable<String[]> source = getFilesSource ();
+			if (source != null)
 			{
-				// Ok, names will be null.
+				try
+				{
+					names = source.call ();
+				}
+				catch (Exception e)
+				{
+					// Ok, names will be null.
+				}
 			}
 
 			if (names != null)
 			{
 				log.debug("Constructing using class '"+FILES_CLASS+
-					"' with files '"+fileNames+"'.");
+					"' with files '"+String.join (",", names)+"'.");
 				init (names);
 			}
 			else
@@ -210,11 +318,94 @@ public class ConfigProperties
 		log.debug("Leaving explicit constructor.");
 	}
 
+	/**
+	 * Construct from a compiled snapshot.
+	 *
+	 * @param	next	the snapshot
+	 */
+	private ConfigProperties (Snapshot next)
+	{
+		log = Logger.getLogger(this.getClass());
+		if (!next.graph.envNames.isEmpty ())
+		{
+			ConfigEnvironment.update ();
+		}
+		next.env = ConfigEnvironment.current ();
+		snapshot = next;
+		frozen = true;
+	}
+
+	// Get the file names source of FILES_CLASS, null if not found.
+	@SuppressWarnings("unchecked")
+	private static Callable<String[]> getFilesSource ()
+	{
+		Callable<String[]> source = filesSource;
+
+		if (source == null)
+		{
+			try
+			{
+				Class<?> filesClass = Class.forName (FILES_CLASS);
+
+				if (Callable.class.isAssignableFrom (filesClass))
+				{
+					source = (Callable<String[]>) filesClass.newInstance ();
+				}
+				else
+				{
+					final Method method = filesClass.getMethod ("getFileNames",
+						(Class[])null);
+
+					source = new Callable<String[]> ()
+					{
+						public String[] call () throws Exception
+						{
+							return (String[]) method.invoke (null, (Object[])null);
+						}
+					};
+				}
+				filesSource = source;
+			}
+			catch (Exception e)
+			{
+				// Ok, no files class.
+			}
+		}
+		return source;
+	}
+
+	/**
+	 * Create a {@link #freeze frozen} ConfigProperties from a snapshot file
+	 * written by {@link SnapshotCompiler}.
+	 * The file is memory-mapped and values are read from it when requested,
+	 * with no property files parsed and no values expanded, except those
+	 * referring to 'env.' properties.
+	 * <p>
+	 * Each name in the property file list the snapshot was compiled from
+	 * is resolved again, and the files found are read to check that none
+	 * has changed, been added or been removed since.
+	 * Relative and CLASSPATH names are resolved where the snapshot is
+	 * read, so it still applies after the files are moved.
+	 *
+	 * @param		fileName	the snapshot file name
+	 * @return					the ConfigProperties
+	 * @exception	IOException	reading the snapshot or a property file,
+	 *							if the file is not a snapshot, or if a
+	 *							property file has changed
+	 */
+	public static ConfigProperties loadSnapshot (String fileName)
+		throws IOException
+	{
+		return new ConfigProperties (Snapshot.of (CompiledSnapshot.read (fileName,
+			ConfigProperties.class.getClassLoader ())));
+	}
+
 	/**
 	 * Dump the properties using System.out.
 	 */
 	public void dump ()
 	{
+		Map<String, String> properties = snapshot.properties;
 		Iterator<String> iter = properties.keySet ().iterator ();
 
 		while (iter.hasNext())
@@ -241,65 +432,55 @@ public class ConfigProperties
 	public String	get (String name)
 		throws MissingPropertyException, StringFormatException {
 
-		String value = properties.get (name);
-
-		if (value == null)
-		{
-			throw new MissingPropertyException
-				("Property '"+name+"' not found in property map.");
-		}
-
-		List<Integer> tokenIndices = TokenIndexRetriever.getIndices (value,
-				SUBSTITUTION_TOKEN);
+		ConfigMetrics m = metrics;
 
-		// If the tokens are not paired
-		if (tokenIndices.size() % 2 != 0)
+		if (m != null)
 		{
-			throw new StringFormatException
-				("The value for property '"+name+"' has unmatched '"+
-				 SUBSTITUTION_TOKEN+"' :\n'"+value+"'.");
+			m.read (name);
 		}
-
-		String expandedValue = new String (value);
-
-		for (int i = 0; i < tokenIndices.size()-1; i += 2)
+		try
 		{
-			int startIndex = tokenIndices.get(i);
-			int endIndex = tokenIndices.get(i+1);
-
-			String propertyName = value.substring
-				(startIndex+1, endIndex);
+			ConfigScope scope = ConfigScope.current ();
 
-			String propertyValue = null;
-
-			if (propertyName.indexOf (ENV_PREFIX) == 0)
+			if (scope != null)
 			{
-				String envName = propertyName.substring
-					(ENV_PREFIX.length(),propertyName.length());
-
-				propertyValue = System.getProperty (envName);
-
-				if (propertyValue == null)
-				{
-					throw new MissingPropertyException
-						("Property '"+envName+"' not found in System properties.");
-				}
+				return scope.overlay (this).get (name);
 			}
-			else
-			{
-				propertyValue = get (propertyName);
+			return snapshot.get (name);
+		}
+		catch (MissingPropertyException e)
+		{
+			missing (m, name);
+			throw e;
+		}
+	}
 
-				if (propertyValue == null)
-				{
-					throw new MissingPropertyException
-						("Property '"+propertyName+"' not found in property map.");
-				}
-			}
-			expandedValue = expandedValue.replace(
-				SUBSTITUTION_TOKEN+propertyName+SUBSTITUTION_TOKEN, propertyValue);
+	/**
+	 * Drop the cached expanded values and argument formats.
+	 * The next {@link #get(String) get} expands from the property values
+	 * again and re-reads system properties and environment variables
+	 * referenced with {@link #ENV_PREFIX ENV_PREFIX}.
+	 */
+	public synchronized void refresh ()
+	{
+		checkNotFrozen ();
+		if (!snapshot.graph.envNames.isEmpty ())
+		{
+			ConfigEnvironment.update ();
 		}
+		publish (snapshot.refresh ());
+	}
 
-		return expandedValue;
+	/**
+	 * Drop the cached values after the {@link ConfigEnvironment} changes,
+	 * if any value has an 'env.' reference.
+	 */
+	synchronized void environmentChanged ()
+	{
+		if (!frozen && !snapshot.graph.envNames.isEmpty ())
+		{
+			publish (snapshot.refresh ());
+		}
 	}
 
 	/**
@@ -309,6 +490,8 @@ public class ConfigProperties
 	 * Do run-time substitution of args into the property value.
 	 * See {@link java.text.MessageFormat#format MessageFormat} for info
 	 * on how to define the property value and args.
+	 * The parsed format is cached per property until the next
+	 * {@link #refresh refresh}.
 	 * Briefly - defines property values like this:
 	 * <br>
 	 * MyClass.MY_PROPERTY=The day is {0} and month is {1}.
@@ -330,117 +513,1119 @@ public class ConfigProperties
 	public String	get (String name, String[] args)
 		throws MissingPropertyException, StringFormatException
 	{
-		String temp = get (name);
+		ConfigMetrics m = metrics;
+
+		if (m != null)
+		{
+			m.read (name);
+		}
+		try
+		{
+			ConfigScope scope = ConfigScope.current ();
 
-		return MessageFormat.format (temp, (Object[])args);
+			if (scope != null)
+			{
+				return scope.overlay (this).get (name, args);
+			}
+			return snapshot.get (name, args);
+		}
+		catch (MissingPropertyException e)
+		{
+			missing (m, name);
+			throw e;
+		}
 	}
 
 	/**
-	 * Get the value for the given property without expanding.
+	 * Append the value for the given property, expanding if necessary.
+	 * A cached expanded value is appended as is.
+	 * Otherwise the value is expanded straight into out, with no string
+	 * built for it or for the references it expands, and is not cached.
+	 * On an exception, part of the value may have been appended.
 	 *
 	 * @param	name	the property name
-	 * @return			the value or null
+	 * @param	out		where to append the value
 	 * @exception		MissingPropertyException
 	 *					if property or any nested property not found
+	 * @exception		StringFormatException
+	 *					if property value has unmatched substitution
+	 *					delimiters
+	 * @exception		IOException
+	 *					appending to out
+	 * @see				#get(String)
 	 */
-	public String	getUnexpanded (String name)
-		throws MissingPropertyException
+	public void		appendTo (String name, Appendable out)
+		throws MissingPropertyException, StringFormatException, IOException
 	{
-		String value = properties.get (name);
+		ConfigMetrics m = metrics;
+
+		if (m != null)
+		{
+			m.read (name);
+		}
+		try
+		{
+			ConfigScope scope = ConfigScope.current ();
 
-		if (value == null)
+			if (scope != null)
+			{
+				scope.overlay (this).appendTo (name, out);
+			}
+			else
+			{
+				snapshot.appendTo (name, out);
+			}
+		}
+		catch (MissingPropertyException e)
 		{
-			throw new MissingPropertyException
-				("Property '"+name+"' not found in property map.");
+			missing (m, name);
+			throw e;
 		}
-		return value;
 	}
 
 	/**
-	 * Get an iterator over the set of property names.
-	 * @return		an iterator over strings
+	 * Append the value for the given property with run-time args.
+	 * A value using only plain '{n}' arguments is formatted directly into
+	 * out.
+	 * Any other value is formatted by a {@link java.text.MessageFormat},
+	 * which writes directly only into a StringBuffer; for any other out
+	 * the formatted string is built and copied.
+	 *
+	 * @param	name	the property name
+	 * @param	args	the run-time args
+	 * @param	out		where to append the value
+	 * @exception		MissingPropertyException
+	 *					if property or any nested property not found
+	 * @exception		StringFormatException
+	 *					if property value has unmatched substitution
+	 *					delimiters
+	 * @exception		IOException
+	 *					appending to out
+	 * @see				#get(String, String[])
 	 */
-	public Iterator<String> getKeySet ()
+	public void		appendTo (String name, String[] args, Appendable out)
+		throws MissingPropertyException, StringFormatException, IOException
 	{
-		return properties.keySet().iterator();
+		ConfigMetrics m = metrics;
+
+		if (m != null)
+		{
+			m.read (name);
+		}
+		try
+		{
+			ConfigScope scope = ConfigScope.current ();
+			ArgumentFormat format = scope != null
+				? scope.overlay (this).getFormat (name)
+				: snapshot.getFormat (name);
+
+			format.appendTo (args, out);
+		}
+		catch (MissingPropertyException e)
+		{
+			missing (m, name);
+			throw e;
+		}
 	}
 
 	/**
-	 * Initialize using an array of property file names.
-	 * If no path is specified for a file, search the working directory
-	 * and the CLASSPATH for the file.
-	 * Properties are read and merged in the array order.
+	 * Get the value for the given property as an int.
+	 * The parsed value is cached until the properties change.
 	 *
-	 * @param		fileNames		the property file names
-	 * @exception	IOException		trying to read a property file
+	 * @param	name	the property name
+	 * @return			the value
+	 * @exception		MissingPropertyException
+	 *					if property or any nested property not found
+	 * @exception		StringFormatException
+	 *					if the value can't be expanded or is not an int
 	 */
-	protected void init (String[] fileNames) throws IOException
+	public int		getInt (String name)
+		throws MissingPropertyException, StringFormatException
 	{
-		log.debug("In init.");
-		if (fileNames.length == 0)
-		{
-			return;
-		}
-		Properties p = new Properties ();
+		return (int) getTyped (name, int.class).longValue;
+	}
 
-		for (int i = 0; i < fileNames.length; i++)
-		{
-			String fileName = fileNames [i];
+	/**
+	 * Get the value for the given property as a long.
+	 * The parsed value is cached until the properties change.
+	 *
+	 * @param	name	the property name
+	 * @return			the value
+	 * @exception		MissingPropertyException
+	 *					if property or any nested property not found
+	 * @exception		StringFormatException
+	 *					if the value can't be expanded or is not a long
+	 */
+	public long		getLong (String name)
+		throws MissingPropertyException, StringFormatException
+	{
+		return getTyped (name, long.class).longValue;
+	}
 
-			File file = new File (fileName);
+	/**
+	 * Get the value for the given property as a boolean.
+	 * The value must be 'true' or 'false', ignoring case.
+	 * The parsed value is cached until the properties change.
+	 *
+	 * @param	name	the property name
+	 * @return			the value
+	 * @exception		MissingPropertyException
+	 *					if property or any nested property not found
+	 * @exception		StringFormatException
+	 *					if the value can't be expanded or is not a boolean
+	 */
+	public boolean	getBoolean (String name)
+		throws MissingPropertyException, StringFormatException
+	{
+		return getTyped (name, boolean.class).longValue != 0;
+	}
 
-			InputStream stream = null;
+	/**
+	 * Get the value for the given property as a double.
+	 * The parsed value is cached until the properties change.
+	 *
+	 * @param	name	the property name
+	 * @return			the value
+	 * @exception		MissingPropertyException
+	 *					if property or any nested property not found
+	 * @exception		StringFormatException
+	 *					if the value can't be expanded or is not a double
+	 */
+	public double	getDouble (String name)
+		throws MissingPropertyException, StringFormatException
+	{
+		return getTyped (name, double.class).doubleValue;
+	}
 
-			if (file.getParent () == null)
-			{
-				// See if it is in the working dir.
+	/**
+	 * Get the value for the given property as a Duration.
+	 * The value is in ISO-8601 form, such as 'PT30S', or is a whole number
+	 * followed by one of the units 'ns', 'us', 'ms', 's', 'm', 'h' or 'd'.
+	 * A number with no unit is milliseconds.
+	 * The parsed value is cached until the properties change.
+	 *
+	 * @param	name	the property name
+	 * @return			the value
+	 * @exception		MissingPropertyException
+	 *					if property or any nested property not found
+	 * @exception		StringFormatException
+	 *					if the value can't be expanded or is not a duration
+	 */
+	public Duration	getDuration (String name)
+		throws MissingPropertyException, StringFormatException
+	{
+		return (Duration) getTyped (name, Duration.class).objectValue;
+	}
 
-				boolean exists = false;
+	/**
+	 * Get the value for the given property as a list.
+	 * The value is a ',' separated list.
+	 * Elements are trimmed and empty elements are left out.
+	 * The parsed value is cached until the properties change.
+	 *
+	 * @param	name	the property name
+	 * @return			an unmodifiable list
+	 * @exception		MissingPropertyException
+	 *					if property or any nested property not found
+	 * @exception		StringFormatException
+	 *					if the value can't be expanded
+	 */
+	@SuppressWarnings("unchecked")
+	public List<String>	getList (String name)
+		throws MissingPropertyException, StringFormatException
+	{
+		return (List<String>) getTyped (name, List.class).objectValue;
+	}
 
-				// Allow for security exception.
-				try
-				{
-					exists = file.exists ();
-				}
-				catch (Exception e)
-				{
-					System.out.println ("Property file "+file.getName()+" not found, searching CLASSPATH.");
-				}
+	/**
+	 * Get the value for the given property as an enum constant.
+	 * The value is the constant name, ignoring case if there is no exact
+	 * match.
+	 * The parsed value is cached until the properties change.
+	 *
+	 * @param	name	the property name
+	 * @param	type	the enum class
+	 * @param	<E>		the enum type
+	 * @return			the value
+	 * @exception		MissingPropertyException
+	 *					if property or any nested property not found
+	 * @exception		StringFormatException
+	 *					if the value can't be expanded or is not a constant
+	 */
+	public <E extends Enum<E>> E	getEnum (String name, Class<E> type)
+		throws MissingPropertyException, StringFormatException
+	{
+		return type.cast (getTyped (name, type).objectValue);
+	}
 
-				if (exists)
-				{
-					stream = new FileInputStream (file);
-				}
-				else
-				{
-					// Search the CLASSPATH for the file.
+	// Get the parsed value, from the current scope if any.
+	private TypedValue getTyped (String name, Class<?> type)
+		throws MissingPropertyException, StringFormatException
+	{
+		ConfigMetrics m = metrics;
 
-					Class<?> class_ = getClass ();
-					ClassLoader cl = class_.getClassLoader ();
+		if (m != null)
+		{
+			m.read (name);
+		}
+		try
+		{
+			ConfigScope scope = ConfigScope.current ();
 
-					if (cl.getResource (fileName) != null)
-					{
-						stream = cl.getResourceAsStream (fileName);
-					}
-					else
-						continue;
-				}
-			}
-			else // There is a complete path.
+			if (scope != null)
 			{
-				stream = new FileInputStream (file);
-			}
-
-			// Merge the properties.
-			p.load (stream);
-			//properties.putAll (p);
-			Enumeration<?> enumer = p.propertyNames();
-			while (enumer.hasMoreElements()) {
-				String name = (String) enumer.nextElement();
-				properties.put (name, p.getProperty(name));
+				return scope.overlay (this).getTyped (name, type);
 			}
-			stream.close();
+			return snapshot.getTyped (name, type);
+		}
+		catch (MissingPropertyException e)
+		{
+			missing (m, name);
+			throw e;
+		}
+	}
+
+	// Count a missing property if metrics are enabled.
+	private static void missing (ConfigMetrics m, String name)
+	{
+		if (m != null)
+		{
+			m.missing (name);
+		}
+	}
+
+	/**
+	 * Get a handle bound to the given property and parsed to the given type.
+	 * Reading the handle returns the current value without a lookup.
+	 * Handles are updated in place when {@link #init init}, a reload or
+	 * {@link #refresh refresh} changes the property.
+	 * Binding the same name and type again returns the same handle.
+	 * <p>
+	 * The property need not be defined yet.
+	 * See {@link ConfigKey} for the supported types.
+	 *
+	 * @param	name	the property name
+	 * @param	type	the value type
+	 * @param	<T>		the value type
+	 * @return			the handle
+	 * @exception		IllegalArgumentException
+	 *					if the type is not supported
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized <T> ConfigKey<T>	key (String name, Class<T> type)
+	{
+		for (ConfigKey<?> key : keys)
+		{
+			if (key.getName ().equals (name) && key.getType () == type)
+			{
+				return (ConfigKey<T>) key;
+			}
+		}
+		ConfigKey<T> key = new ConfigKey<T> (this, name, type);
+		key.bind (snapshot);
+		keys.add (key);
+		return key;
+	}
+
+	/**
+	 * Get the value for the given property without expanding.
+	 *
+	 * @param	name	the property name
+	 * @return			the value or null
+	 * @exception		MissingPropertyException
+	 *					if property or any nested property not found
+	 */
+	public String	getUnexpanded (String name)
+		throws MissingPropertyException
+	{
+		ConfigMetrics m = metrics;
+
+		if (m != null)
+		{
+			m.read (name);
+		}
+		try
+		{
+			ConfigScope scope = ConfigScope.current ();
+
+			if (scope != null)
+			{
+				return scope.overlay (this).getUnexpanded (name);
+			}
+			return snapshot.getUnexpanded (name);
+		}
+		catch (MissingPropertyException e)
+		{
+			missing (m, name);
+			throw e;
+		}
+	}
+
+	/**
+	 * Get the values for the given properties, expanding if necessary.
+	 * The values are read from the same properties, even if an
+	 * {@link #init init} or reload happens meanwhile.
+	 * A reference shared by several values is expanded once and cached.
+	 * Every property is read before any error is reported.
+	 *
+	 * @param	names	the property names
+	 * @return			an unmodifiable map of the values by name, in the
+	 *					order of the names
+	 * @exception		InvalidPropertiesException
+	 *					reporting every property that was not found or
+	 *					could not be expanded
+	 */
+	public Map<String, String> getAll (Collection<String> names)
+		throws InvalidPropertiesException
+	{
+		return getAll (snapshot, names);
+	}
+
+	/**
+	 * Get the values for the properties whose names begin with a prefix.
+	 * See {@link #getAll(Collection)}.
+	 *
+	 * @param	prefix	the name prefix
+	 * @return			an unmodifiable map of the values by name, in
+	 *					sorted order
+	 * @exception		InvalidPropertiesException
+	 *					reporting every property that could not be
+	 *					expanded
+	 */
+	public Map<String, String> getAll (String prefix)
+		throws InvalidPropertiesException
+	{
+		Snapshot s = snapshot;
+		List<String> names = new ArrayList<String> ();
+
+		for (Iterator<String> i = s.getIndex ().iterator (prefix, false); i.hasNext ();)
+		{
+			names.add (i.next ());
+		}
+		return getAll (s, names);
+	}
+
+	// Get the values from one snapshot, collecting the errors.
+	private Map<String, String> getAll (Snapshot s, Collection<String> names)
+		throws InvalidPropertiesException
+	{
+		ConfigMetrics m = metrics;
+		ConfigScope scope = ConfigScope.current ();
+		ConfigOverlay overlay = scope == null ? null : scope.overlay (this);
+
+		LinkedHashMap<String, String> values =
+			new LinkedHashMap<String, String> (names.size ()*4/3+1);
+		TreeMap<String, Exception> errors = null;
+
+		for (String name : names)
+		{
+			if (m != null)
+			{
+				m.read (name);
+			}
+			try
+			{
+				values.put (name, overlay != null ? overlay.get (name) : s.get (name));
+			}
+			catch (MissingPropertyException e)
+			{
+				missing (m, name);
+				errors = addError (errors, name, e);
+			}
+			catch (StringFormatException e)
+			{
+				errors = addError (errors, name, e);
+			}
+		}
+		if (errors != null)
+		{
+			throw new InvalidPropertiesException (errors);
+		}
+		return Collections.unmodifiableMap (values);
+	}
+
+	private static TreeMap<String, Exception> addError
+		(TreeMap<String, Exception> errors, String name, Exception e)
+	{
+		if (errors == null)
+		{
+			errors = new TreeMap<String, Exception> ();
+		}
+		errors.put (name, e);
+		return errors;
+	}
+
+	/**
+	 * Get an iterator over the set of property names.
+	 * The iterator is over the properties at the time of the call and
+	 * is not affected by a later {@link #init init}.
+	 * @return		an iterator over strings
+	 */
+	public Iterator<String> getKeySet ()
+	{
+		return snapshot.properties.keySet().iterator();
+	}
+
+	/**
+	 * Get an iterator over the property names beginning with a prefix,
+	 * in sorted order.
+	 * The names are found in a sorted index in O(log n) time.
+	 * Like {@link #getKeySet()}, the iterator is over the properties at
+	 * the time of the call.
+	 *
+	 * @param	prefix	the name prefix
+	 * @return			an iterator over strings
+	 */
+	public Iterator<String> getKeySet (String prefix)
+	{
+		return snapshot.getIndex ().iterator (prefix, false);
+	}
+
+	/**
+	 * Get a view of the properties whose names begin with a prefix.
+	 * The view reads properties by their names without the prefix.
+	 *
+	 * @param	prefix	the name prefix, such as 'db.primary.'
+	 * @return			the view
+	 * @see				ConfigSubset
+	 */
+	public ConfigSubset subset (String prefix)
+	{
+		return new ConfigSubset (this, prefix);
+	}
+
+	/**
+	 * Get a layer of properties over these, sharing rather than copying
+	 * them.
+	 * References in the overlay are expanded with its own values, so
+	 * it suits many small sets of overrides over one large base, such as
+	 * one per tenant.
+	 *
+	 * @param	properties	the properties overriding these
+	 * @return				the overlay
+	 * @see					ConfigOverlay
+	 */
+	public ConfigOverlay overlay (Map<String, String> properties)
+	{
+		return new ConfigOverlay (this, null, properties);
+	}
+
+	/**
+	 * Get a spliterator over the property names beginning with a prefix,
+	 * in sorted order.
+	 * It splits evenly, so large ranges can be streamed in parallel with
+	 * {@link java.util.stream.StreamSupport#stream StreamSupport.stream}.
+	 *
+	 * @param	prefix	the name prefix, "" for all names
+	 * @return			the spliterator
+	 */
+	public Spliterator<String> spliterator (String prefix)
+	{
+		return snapshot.getIndex ().spliterator (prefix);
+	}
+
+	/**
+	 * Initialize using an array of property file names.
+	 * If no path is specified for a file, search the working directory
+	 * and the CLASSPATH for the file.
+	 * Names are resolved by the {@link ConfigSource}s, so a name may
+	 * instead refer to properties in memory, a CLASSPATH resource or
+	 * several files in a directory.
+	 * Files are found and read concurrently, see
+	 * {@link #setLoadExecutor setLoadExecutor}, and then merged in the
+	 * array order.
+	 * The merged properties replace the current ones in a single step
+	 * after all files are read.
+	 * A file read again replaces the properties it had, so one no longer
+	 * in the file is removed unless another file defines it, as when the
+	 * file is {@link #startReloading reloaded}.
+	 * The time to read each file is logged.
+	 *
+	 * @param		fileNames		the property file names
+	 * @exception	IOException		trying to read a property file
+	 */
+	protected synchronized void init (String[] fileNames) throws IOException
+	{
+		log.debug("In init.");
+		checkNotFrozen ();
+		if (fileNames.length == 0)
+		{
+			return;
+		}
+		long start = System.nanoTime ();
+
+		List<FutureTask<List<PropertyFile>>> tasks =
+			new ArrayList<FutureTask<List<PropertyFile>>> (fileNames.length);
+
+		for (int i = 0; i < fileNames.length; i++)
+		{
+			final String fileName = fileNames [i];
+			FutureTask<List<PropertyFile>> task = new FutureTask<List<PropertyFile>>
+				(new Callable<List<PropertyFile>> ()
+			{
+				public List<PropertyFile> call () throws IOException
+				{
+					List<PropertyFile> found = ConfigSources.resolve (fileName,
+						ConfigProperties.this.getClass ().getClassLoader ());
+
+					for (PropertyFile file : found)
+					{
+						file.load ();
+					}
+					return found;
+				}
+			});
+			tasks.add (task);
+
+			// A single file is read on this thread.
+			if (fileNames.length == 1)
+			{
+				task.run ();
+			}
+			else
+			{
+				loadExecutor.execute (task);
+			}
+		}
+
+		HashMap<String, String> merged = new HashMap<String, String> ();
+		List<PropertyFile> loaded = new ArrayList<PropertyFile> ();
+
+		for (FutureTask<List<PropertyFile>> task : tasks)
+		{
+			for (PropertyFile file : getLoaded (task))
+			{
+				// Merge the properties.
+				merged.putAll (file.properties);
+				loaded.add (file);
+
+				log.debug ("Read property file '"+file.location+"' in "+
+					TimeUnit.NANOSECONDS.toMillis (file.loadNanos)+" ms.");
+			}
+		}
+		log.debug ("Read "+loaded.size ()+" property files in "+
+			TimeUnit.NANOSECONDS.toMillis (System.nanoTime ()-start)+" ms.");
+
+		// A file read again is merged last, so its earlier place
+		// in the list no longer matters.
+		boolean reread = false;
+		for (PropertyFile file : loaded)
+		{
+			for (Iterator<PropertyFile> iter = files.iterator (); iter.hasNext ();)
+			{
+				if (iter.next ().location.equals (file.location))
+				{
+					iter.remove ();
+					reread = true;
+				}
+			}
+			files.add (file);
+		}
+		for (String fileName : fileNames)
+		{
+			this.fileNames.remove (fileName);
+			this.fileNames.add (fileName);
+		}
+
+		// New files only add properties, but one read again replaces its
+		// earlier ones, as by reload.
+		Snapshot next = reread ? snapshot.replace (mergeFiles ())
+			: snapshot.merge (merged);
+
+		for (Template template : next.templates.values ())
+		{
+			if (template.error != null)
+			{
+				log.warn (template.error);
+			}
+		}
+		for (Map.Entry<String, String> cycle : next.graph.cycles.entrySet ())
+		{
+			log.warn ("The value for property '"+cycle.getKey ()+
+				"' has a substitution cycle :\n'"+cycle.getValue ()+"'.");
+		}
+		if (!next.graph.envNames.isEmpty ())
+		{
+			ConfigEnvironment.update ();
+		}
+		publish (next);
+		lastLoadTime = System.currentTimeMillis ();
+		lastLoadNanos = System.nanoTime ()-start;
+
+		if (reloader != null)
+		{
+			startReloading (debounceMillis, pollMillis);
+		}
+		log.debug("Leaving init.");
+	}
+
+	// Merge the files in order, as last read.
+	private Map<String, String> mergeFiles ()
+	{
+		HashMap<String, String> merged = new HashMap<String, String> ();
+
+		for (PropertyFile file : files)
+		{
+			merged.putAll (file.properties);
+		}
+		return merged;
+	}
+
+	/**
+	 * Wait for the property files of a name read by init.
+	 *
+	 * @param		task		the task reading the files
+	 * @return					the files found, in merge order
+	 * @exception	IOException	trying to read the file
+	 */
+	private static List<PropertyFile> getLoaded (FutureTask<List<PropertyFile>> task)
+		throws IOException
+	{
+		try
+		{
+			return task.get ();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread ().interrupt ();
+			throw new InterruptedIOException ("Interrupted reading property files.");
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause ();
+
+			if (cause instanceof IOException)
+			{
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException)
+			{
+				throw (RuntimeException) cause;
+			}
+			throw (Error) cause;
+		}
+	}
+
+	/**
+	 * Get the files read by init, in merge order.
+	 *
+	 * @return	a copy of the file list
+	 */
+	synchronized List<PropertyFile> getFiles ()
+	{
+		return new ArrayList<PropertyFile> (files);
+	}
+
+	/**
+	 * Get the names given to init, in merge order, including those that
+	 * found no files.
+	 *
+	 * @return	a copy of the name list
+	 */
+	synchronized List<String> getFileNames ()
+	{
+		return new ArrayList<String> (fileNames);
+	}
+
+	/**
+	 * Start counting reads and timing expansions and loads.
+	 * Register the metrics to see them through JMX.
+	 *
+	 * @return	the metrics, the same ones if already enabled
+	 * @see		ConfigMetrics#register
+	 */
+	public synchronized ConfigMetrics enableMetrics ()
+	{
+		if (metrics == null)
+		{
+			metrics = new ConfigMetrics (this);
+			if (snapshot != Snapshot.EMPTY)
+			{
+				snapshot.metrics = metrics;
+			}
+		}
+		return metrics;
+	}
+
+	/**
+	 * Stop counting reads and timing expansions, and unregister the
+	 * metrics from JMX.
+	 */
+	public synchronized void disableMetrics ()
+	{
+		ConfigMetrics m = metrics;
+
+		if (m == null)
+		{
+			return;
+		}
+		metrics = null;
+		snapshot.metrics = null;
+		try
+		{
+			m.unregister ();
+		}
+		catch (JMException e)
+		{
+			log.warn ("Exception unregistering metrics :\n" + e);
+		}
+	}
+
+	/**
+	 * Get the metrics.
+	 *
+	 * @return	the metrics, or null if not enabled
+	 */
+	public ConfigMetrics getMetrics ()
+	{
+		return metrics;
+	}
+
+	/**
+	 * Set the executor that reads property files for {@link #init init}.
+	 * By default files are read on a shared pool of daemon threads.
+	 * Set an executor that runs tasks on the calling thread to read files
+	 * one after another.
+	 *
+	 * @param	executor	the executor
+	 */
+	public void setLoadExecutor (Executor executor)
+	{
+		loadExecutor = executor;
+	}
+
+	/**
+	 * Start watching the property files read by {@link #init init} and
+	 * reload them when they change.
+	 * Files in the file system are watched for changes.
+	 * Files found in a jar, and other properties not in the file system,
+	 * are polled for a changed modification time or checksum.
+	 * Changes are collected until there are none for the debounce interval,
+	 * then only the changed files are read again and all files are merged
+	 * again in their original order.
+	 * A property removed from a file is removed, unless another file
+	 * defines it, as when init reads the file again.
+	 * Files read by a later init are watched as well.
+	 *
+	 * @param		debounceMillis	the time with no changes before reloading
+	 * @param		pollMillis		the interval for polling files in jars
+	 * @exception	IOException		creating the file watcher
+	 * @exception	IllegalArgumentException
+	 *								if an interval is not positive
+	 */
+	public synchronized void startReloading (long debounceMillis, long pollMillis)
+		throws IOException
+	{
+		if (debounceMillis <= 0 || pollMillis <= 0)
+		{
+			throw new IllegalArgumentException ("Reload intervals must be positive, not "+
+				debounceMillis+" and "+pollMillis+" ms.");
+		}
+		checkNotFrozen ();
+		stopReloading ();
+		this.debounceMillis = debounceMillis;
+		this.pollMillis = pollMillis;
+		reloader = new Reloader (this, files, debounceMillis, pollMillis);
+	}
+
+	/**
+	 * Stop watching the property files.
+	 */
+	public synchronized void stopReloading ()
+	{
+		if (reloader != null)
+		{
+			reloader.stop ();
+			reloader = null;
+		}
+	}
+
+	/**
+	 * Read the given files again and merge all files in their original order.
+	 * A file that cannot be read keeps its previous properties.
+	 *
+	 * @param	changed		the files that may have changed
+	 */
+	synchronized void reload (Collection<PropertyFile> changed)
+	{
+		if (frozen)
+		{
+			return;
+		}
+		long start = System.nanoTime ();
+		boolean modified = false;
+
+		for (PropertyFile file : changed)
+		{
+			try
+			{
+				if (file.load ())
+				{
+					log.debug ("Reloaded property file '"+file.name+"'.");
+					modified = true;
+				}
+			}
+			catch (IOException e)
+			{
+				log.warn ("Exception reloading property file '"+file.name+"' :\n" + e);
+			}
+		}
+
+		if (!modified)
+		{
+			return;
+		}
+		publish (snapshot.replace (mergeFiles ()));
+		lastLoadTime = System.currentTimeMillis ();
+		lastLoadNanos = System.nanoTime ()-start;
+	}
+
+	/**
+	 * Expand every property now and make this ConfigProperties read-only.
+	 * Expansion runs in parallel on the common fork-join pool.
+	 * See {@link #freeze(ForkJoinPool)}.
+	 *
+	 * @exception	InvalidPropertiesException
+	 *				if any property can't be expanded
+	 */
+	public void freeze () throws InvalidPropertiesException
+	{
+		freeze (ForkJoinPool.commonPool ());
+	}
+
+	/**
+	 * Expand every property now and make this ConfigProperties read-only.
+	 * Afterwards {@link #get(String) get} is a single lookup, and
+	 * {@link #init init}, {@link #refresh refresh} and
+	 * {@link #startReloading startReloading} throw IllegalStateException.
+	 * 'env.' references keep the values read here.
+	 * <p>
+	 * Every property is expanded, so all missing references and unmatched
+	 * delimiters are reported together.
+	 * If there are any, this ConfigProperties is not frozen.
+	 *
+	 * @param		pool	the pool to expand in
+	 * @exception	InvalidPropertiesException
+	 *				if any property can't be expanded
+	 */
+	public synchronized void freeze (ForkJoinPool pool)
+		throws InvalidPropertiesException
+	{
+		SortedMap<String, Exception> errors = snapshot.expandAll (pool);
+
+		if (!errors.isEmpty ())
+		{
+			throw new InvalidPropertiesException (errors);
+		}
+		stopReloading ();
+		frozen = true;
+	}
+
+	/**
+	 * Check if read-only.
+	 *
+	 * @return	true if {@link #freeze frozen}
+	 */
+	public boolean isFrozen ()
+	{
+		return frozen;
+	}
+
+	// Throw if read-only.
+	private void checkNotFrozen ()
+	{
+		if (frozen)
+		{
+			throw new IllegalStateException ("ConfigProperties is frozen.");
+		}
+	}
+
+	/**
+	 * Register a listener for changes to the expanded value of a property.
+	 * Changes are found each time {@link #init init}, a reload or
+	 * {@link #refresh refresh} replaces the properties, including changes
+	 * through a referenced property.
+	 *
+	 * @param	name		the property name
+	 * @param	listener	the listener
+	 */
+	public void addListener (String name, ConfigChangeListener listener)
+	{
+		registrations.add (new Registration (name, false, listener));
+	}
+
+	/**
+	 * Register a listener for changes to the expanded values of all
+	 * properties whose names begin with the given prefix.
+	 *
+	 * @param	prefix		the property name prefix
+	 * @param	listener	the listener
+	 * @see					#addListener
+	 */
+	public void addPrefixListener (String prefix, ConfigChangeListener listener)
+	{
+		registrations.add (new Registration (prefix, true, listener));
+	}
+
+	/**
+	 * Remove all registrations of a listener.
+	 *
+	 * @param	listener	the listener
+	 */
+	public void removeListener (ConfigChangeListener listener)
+	{
+		for (Registration registration : registrations)
+		{
+			if (registration.listener == listener)
+			{
+				registrations.remove (registration);
+			}
+		}
+	}
+
+	/**
+	 * Set the executor that runs listeners.
+	 * By default listeners run on the thread replacing the properties.
+	 *
+	 * @param	executor	the executor
+	 */
+	public void setListenerExecutor (Executor executor)
+	{
+		listenerExecutor = executor;
+	}
+
+	/**
+	 * Replace the snapshot, update handles and notify listeners of changed
+	 * values.
+	 *
+	 * @param	next	the new snapshot
+	 */
+	private void publish (Snapshot next)
+	{
+		if (!next.graph.envNames.isEmpty ())
+		{
+			ConfigEnvironment.register (this);
+		}
+
+		// The previous snapshot keeps expanding with the values it had, so
+		// the old values reported are from before any change.
+		// The 'env.' values differ only if the environment was copied again.
+		Snapshot previous = snapshot;
+		next.env = ConfigEnvironment.current ();
+		boolean envChanged = next.env != previous.env;
+
+		next.metrics = metrics;
+		snapshot = next;
+
+		if (keys.isEmpty () && registrations.isEmpty ())
+		{
+			return;
+		}
+
+		Set<String> changed = next.getChangedNames (previous, envChanged);
+
+		for (ConfigKey<?> key : keys)
+		{
+			if (changed.contains (key.getName ()))
+			{
+				key.bind (next);
+			}
+		}
+
+		// Find the changed names of interest.
+		Set<String> names = new HashSet<String> ();
+
+		for (Registration registration : registrations)
+		{
+			if (!registration.prefix)
+			{
+				if (changed.contains (registration.name))
+				{
+					names.add (registration.name);
+				}
+				continue;
+			}
+			for (String name : changed)
+			{
+				if (name.startsWith (registration.name))
+				{
+					names.add (name);
+				}
+			}
+		}
+
+		for (final String name : names)
+		{
+			final String oldValue = expand (previous, name);
+			final String newValue = expand (next, name);
+
+			if (oldValue == null ? newValue == null : oldValue.equals (newValue))
+			{
+				continue;
+			}
+
+			for (final Registration registration : registrations)
+			{
+				if (!registration.matches (name))
+				{
+					continue;
+				}
+				listenerExecutor.execute (new Runnable ()
+				{
+					public void run ()
+					{
+						try
+						{
+							registration.listener.propertyChanged
+								(name, oldValue, newValue);
+						}
+						catch (RuntimeException e)
+						{
+							log.error ("Exception from listener for property '"+
+								name+"' :\n" + e);
+						}
+					}
+				});
+			}
+		}
+	}
+
+	// Get the expanded value or null if it can't be expanded.
+	private static String expand (Snapshot s, String name)
+	{
+		try
+		{
+			return s.get (name);
+		}
+		catch (MissingPropertyException e)
+		{
+			return null;
+		}
+		catch (StringFormatException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * A listener registered for a property name or prefix.
+	 */
+	private static final class Registration
+	{
+		final String				name;
+		final boolean				prefix;
+		final ConfigChangeListener	listener;
+
+		Registration (String name, boolean prefix, ConfigChangeListener listener)
+		{
+			this.name = name;
+			this.prefix = prefix;
+			this.listener = listener;
+		}
+
+		boolean matches (String property)
+		{
+			return prefix ? property.startsWith (name) : property.equals (name);
 		}
-		log.debug("Leaving init.");
 	}
 }
@@ -1,11 +1,24 @@
 package com.deetysoft.config;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.log4j.Logger;
 
 /**
  * A singleton wrapping a {@link ConfigProperties}.
+ * The ConfigProperties is loaded when first needed, or in the background
+ * after {@link #preloadAsync preloadAsync}.
  * ConfigPropertiesS is sufficient for many applications.
  * Reusable components, APIs etc. should use a ConfigProperties of their own to
  * avoid conflict.
@@ -14,33 +27,20 @@ import org.apache.log4j.Logger;
  */
 public class ConfigPropertiesS
 {
-	// The ConfigProperties
-	protected static ConfigProperties	configProperties;
+	// The ConfigProperties, null until loaded or set.
+	protected static volatile ConfigProperties	configProperties;
 
-	/**
-	 * Create the single ConfigProperties.
-	 */
-	static
-	{
-		Logger log = Logger.getLogger(ConfigProperties.class);
-		log.debug("In static initializer.");
+	private static final Logger	log	= Logger.getLogger(ConfigProperties.class);
 
-		try
-		{
-			log.debug("Constructing singleton.");
-			configProperties = new ConfigProperties ();
-			Iterator<String> properties = configProperties.getKeySet ();
-			if (!properties.hasNext ())
-			{
-				log.debug ("Singleton has no properties defined.");
-			}
-		}
-		catch (Exception e)
-		{
-			log.debug ("Exception creating singleton :\n" + e);
-		}
-		log.debug("leaving static initializer.");
-	}
+	// Loading the default ConfigProperties, null until loading has begun
+	// and again after an Error loading, so that it is tried again.
+	private static volatile Loading	loading;
+
+	// The time taken to load, -1 until loaded.
+	private static volatile long		initMillis	= -1;
+
+	// The exception loading, or null.
+	private static volatile Exception	initFailure;
 
 	/**
 	 * The default constructor.
@@ -55,7 +55,74 @@ public class ConfigPropertiesS
 	 * @throws IOException	trying to read a property file
 	 */
 	public static void init (String[] fileNames) throws IOException {
-		configProperties.init(fileNames);
+		instance ().init(fileNames);
+	}
+
+	/**
+	 * Static version of {@link ConfigProperties#startReloading startReloading}.
+	 * @param debounceMillis	the time with no changes before reloading
+	 * @param pollMillis		the interval for polling files in jars
+	 * @throws IOException		creating the file watcher
+	 * @throws IllegalArgumentException	if an interval is not positive
+	 */
+	public static void startReloading (long debounceMillis, long pollMillis)
+		throws IOException
+	{
+		instance ().startReloading (debounceMillis, pollMillis);
+	}
+
+	/**
+	 * Static version of {@link ConfigProperties#stopReloading stopReloading}.
+	 */
+	public static void stopReloading ()
+	{
+		instance ().stopReloading ();
+	}
+
+	/**
+	 * Static version of {@link ConfigProperties#addListener addListener}.
+	 * @param name		the property name
+	 * @param listener	the listener
+	 */
+	public static void addListener (String name, ConfigChangeListener listener)
+	{
+		instance ().addListener (name, listener);
+	}
+
+	/**
+	 * Static version of {@link ConfigProperties#addPrefixListener addPrefixListener}.
+	 * @param prefix	the property name prefix
+	 * @param listener	the listener
+	 */
+	public static void addPrefixListener (String prefix, ConfigChangeListener listener)
+	{
+		instance ().addPrefixListener (prefix, listener);
+	}
+
+	/**
+	 * Static version of {@link ConfigProperties#removeListener removeListener}.
+	 * @param listener	the listener
+	 */
+	public static void removeListener (ConfigChangeListener listener)
+	{
+		instance ().removeListener (listener);
+	}
+
+	/**
+	 * Static version of {@link ConfigProperties#freeze() freeze}.
+	 * @throws InvalidPropertiesException	if any property can't be expanded
+	 */
+	public static void freeze () throws InvalidPropertiesException
+	{
+		instance ().freeze ();
+	}
+
+	/**
+	 * Static version of {@link ConfigProperties#refresh refresh}.
+	 */
+	public static void refresh ()
+	{
+		instance ().refresh ();
 	}
 
 	/**
@@ -63,7 +130,7 @@ public class ConfigPropertiesS
 	 */
 	public static void dump ()
 	{
-		configProperties.dump ();
+		instance ().dump ();
 	}
 
 	/**
@@ -79,7 +146,7 @@ public class ConfigPropertiesS
 	public static String get (String name)
 		throws MissingPropertyException, StringFormatException
 	{
-		return configProperties.get (name);
+		return instance ().get (name);
 	}
 
 	/**
@@ -96,9 +163,171 @@ public class ConfigPropertiesS
 	public static String get (String name, String[] args)
 		throws MissingPropertyException, StringFormatException
 	{
-		return configProperties.get (name, args);
+		return instance ().get (name, args);
+	}
+
+	/**
+	 * Static version of {@link ConfigProperties#appendTo(String, Appendable)
+	 * appendTo}.
+	 * @param	name	the property name
+	 * @param	out		where to append the value
+	 * @exception		MissingPropertyException
+	 *					if property or any nested property not found
+	 * @exception		StringFormatException
+	 *					if property value has unmatched substitution
+	 *					delimiters
+	 * @exception		IOException
+	 *					appending to out
+	 */
+	public static void appendTo (String name, Appendable out)
+		throws MissingPropertyException, StringFormatException, IOException
+	{
+		instance ().appendTo (name, out);
+	}
+
+	/**
+	 * Static version of
+	 * {@link ConfigProperties#appendTo(String, String[], Appendable)
+	 * appendTo}.
+	 * @param	name	the property name
+	 * @param	args	the run-time args
+	 * @param	out		where to append the value
+	 * @exception		MissingPropertyException
+	 *					if property or any nested property not found
+	 * @exception		StringFormatException
+	 *					if property value has unmatched substitution
+	 *					delimiters
+	 * @exception		IOException
+	 *					appending to out
+	 */
+	public static void appendTo (String name, String[] args, Appendable out)
+		throws MissingPropertyException, StringFormatException, IOException
+	{
+		instance ().appendTo (name, args, out);
+	}
+
+
+	/**
+	 * Static version of {@link ConfigProperties#getInt getInt}.
+	 * @param	name	the property name
+	 * @return			the value
+	 * @exception		MissingPropertyException
+	 *					if property or any nested property not found
+	 * @exception		StringFormatException
+	 *					if the value can't be expanded or is not an int
+	 */
+	public static int getInt (String name)
+		throws MissingPropertyException, StringFormatException
+	{
+		return instance ().getInt (name);
+	}
+
+	/**
+	 * Static version of {@link ConfigProperties#getLong getLong}.
+	 * @param	name	the property name
+	 * @return			the value
+	 * @exception		MissingPropertyException
+	 *					if property or any nested property not found
+	 * @exception		StringFormatException
+	 *					if the value can't be expanded or is not a long
+	 */
+	public static long getLong (String name)
+		throws MissingPropertyException, StringFormatException
+	{
+		return instance ().getLong (name);
+	}
+
+	/**
+	 * Static version of {@link ConfigProperties#getBoolean getBoolean}.
+	 * @param	name	the property name
+	 * @return			the value
+	 * @exception		MissingPropertyException
+	 *					if property or any nested property not found
+	 * @exception		StringFormatException
+	 *					if the value can't be expanded or is not a boolean
+	 */
+	public static boolean getBoolean (String name)
+		throws MissingPropertyException, StringFormatException
+	{
+		return instance ().getBoolean (name);
+	}
+
+	/**
+	 * Static version of {@link ConfigProperties#getDouble getDouble}.
+	 * @param	name	the property name
+	 * @return			the value
+	 * @exception		MissingPropertyException
+	 *					if property or any nested property not found
+	 * @exception		StringFormatException
+	 *					if the value can't be expanded or is not a double
+	 */
+	public static double getDouble (String name)
+		throws MissingPropertyException, StringFormatException
+	{
+		return instance ().getDouble (name);
+	}
+
+	/**
+	 * Static version of {@link ConfigProperties#getDuration getDuration}.
+	 * @param	name	the property name
+	 * @return			the value
+	 * @exception		MissingPropertyException
+	 *					if property or any nested property not found
+	 * @exception		StringFormatException
+	 *					if the value can't be expanded or is not a duration
+	 */
+	public static Duration getDuration (String name)
+		throws MissingPropertyException, StringFormatException
+	{
+		return instance ().getDuration (name);
+	}
+
+	/**
+	 * Static version of {@link ConfigProperties#getList getList}.
+	 * @param	name	the property name
+	 * @return			an unmodifiable list
+	 * @exception		MissingPropertyException
+	 *					if property or any nested property not found
+	 * @exception		StringFormatException
+	 *					if the value can't be expanded
+	 */
+	public static List<String> getList (String name)
+		throws MissingPropertyException, StringFormatException
+	{
+		return instance ().getList (name);
+	}
+
+	/**
+	 * Static version of {@link ConfigProperties#getEnum getEnum}.
+	 * @param	name	the property name
+	 * @param	type	the enum class
+	 * @param	<E>		the enum type
+	 * @return			the value
+	 * @exception		MissingPropertyException
+	 *					if property or any nested property not found
+	 * @exception		StringFormatException
+	 *					if the value can't be expanded or is not a constant
+	 */
+	public static <E extends Enum<E>> E getEnum (String name, Class<E> type)
+		throws MissingPropertyException, StringFormatException
+	{
+		return instance ().getEnum (name, type);
 	}
 
+	/**
+	 * Static version of {@link ConfigProperties#key key}.
+	 * The handle is bound to the current ConfigProperties.
+	 * @param	name	the property name
+	 * @param	type	the value type
+	 * @param	<T>		the value type
+	 * @return			the handle
+	 * @exception		IllegalArgumentException
+	 *					if the type is not supported
+	 */
+	public static <T> ConfigKey<T> key (String name, Class<T> type)
+	{
+		return instance ().key (name, type);
+	}
 
 	/**
 	 * Static version of {@link ConfigProperties#getPropertyUnexpanded getPropertyUnexpanded}.
@@ -108,7 +337,7 @@ public class ConfigPropertiesS
 	public static String	getUnexpanded (String name)
 		throws MissingPropertyException
 	{
-		return configProperties.getUnexpanded (name);
+		return instance ().getUnexpanded (name);
 	}
 
 	/**
@@ -117,7 +346,85 @@ public class ConfigPropertiesS
 	 */
 	public static Iterator<String> getKeySet ()
 	{
-		return configProperties.getKeySet();
+		return instance ().getKeySet();
+	}
+
+	/**
+	 * Static version of {@link ConfigProperties#getKeySet(String) getKeySet}.
+	 * @param	prefix	the name prefix
+	 * @return			an iterator over strings
+	 */
+	public static Iterator<String> getKeySet (String prefix)
+	{
+		return instance ().getKeySet (prefix);
+	}
+
+	/**
+	 * Static version of {@link ConfigProperties#getAll(Collection) getAll}.
+	 * @param	names	the property names
+	 * @return			the values by name
+	 * @exception		InvalidPropertiesException
+	 *					reporting every property not found or not expanded
+	 */
+	public static Map<String, String> getAll (Collection<String> names)
+		throws InvalidPropertiesException
+	{
+		return instance ().getAll (names);
+	}
+
+	/**
+	 * Static version of {@link ConfigProperties#getAll(String) getAll}.
+	 * @param	prefix	the name prefix
+	 * @return			the values by name
+	 * @exception		InvalidPropertiesException
+	 *					reporting every property not expanded
+	 */
+	public static Map<String, String> getAll (String prefix)
+		throws InvalidPropertiesException
+	{
+		return instance ().getAll (prefix);
+	}
+
+	/**
+	 * Static version of {@link ConfigProperties#subset subset}.
+	 * The view is of the current ConfigProperties.
+	 * @param	prefix	the name prefix
+	 * @return			the view
+	 */
+	public static ConfigSubset subset (String prefix)
+	{
+		return instance ().subset (prefix);
+	}
+
+	/**
+	 * Static version of {@link ConfigProperties#overlay overlay}.
+	 * The overlay is over the current ConfigProperties.
+	 * @param	properties	the overriding properties
+	 * @return				the overlay
+	 */
+	public static ConfigOverlay overlay (Map<String, String> properties)
+	{
+		return instance ().overlay (properties);
+	}
+
+	/**
+	 * Static version of {@link ConfigProperties#enableMetrics enableMetrics}.
+	 * The metrics are of the current ConfigProperties.
+	 * @return	the metrics
+	 */
+	public static ConfigMetrics enableMetrics ()
+	{
+		return instance ().enableMetrics ();
+	}
+
+	/**
+	 * Static version of {@link ConfigProperties#spliterator spliterator}.
+	 * @param	prefix	the name prefix
+	 * @return			the spliterator
+	 */
+	public static Spliterator<String> spliterator (String prefix)
+	{
+		return instance ().spliterator (prefix);
 	}
 
 	/**
@@ -125,7 +432,7 @@ public class ConfigPropertiesS
 	 * @return	the configProperties
 	 */
 	public static ConfigProperties getConfigProperties () {
-		return configProperties;
+		return instance ();
 	}
 
 	/**
@@ -135,6 +442,206 @@ public class ConfigPropertiesS
 	 */
 	public static void setConfigProperties (ConfigProperties instance_)
 	{
-		configProperties = instance_;
+		synchronized (ConfigPropertiesS.class)
+		{
+			configProperties = instance_;
+		}
+	}
+
+	/**
+	 * Start loading the default ConfigProperties in the background, if not
+	 * already loading or loaded.
+	 * Call at boot so that the files are read before they are needed.
+	 * A call needing the properties before loading finishes waits for it.
+	 * <p>
+	 * The default ConfigProperties is otherwise loaded by the first call
+	 * needing it, unless one is set with
+	 * {@link #setConfigProperties setConfigProperties} first.
+	 * <p>
+	 * An exception loading is reported by {@link #getInitFailure} and
+	 * leaves the singleton with no properties.
+	 * An Error fails the future but is not kept - the next call to this
+	 * method or needing the properties loads again.
+	 *
+	 * @return	a future completed with the loaded ConfigProperties, the
+	 *			same one until loading fails with an Error, and which
+	 *			can't be cancelled
+	 */
+	public static Future<ConfigProperties> preloadAsync ()
+	{
+		final Loading current = loading ();
+
+		if (current.started.compareAndSet (false, true))
+		{
+			Thread thread = new Thread (new Runnable ()
+			{
+				public void run ()
+				{
+					load (current);
+				}
+			}, "ConfigPropertiesS-preload");
+			thread.setDaemon (true);
+			thread.start ();
+		}
+		return current;
+	}
+
+	/**
+	 * Get the time taken to load the default ConfigProperties.
+	 *
+	 * @return	the time in milliseconds, -1 if not loaded
+	 */
+	public static long getInitMillis ()
+	{
+		return initMillis;
+	}
+
+	/**
+	 * Get the exception loading the default ConfigProperties.
+	 * When loading fails, the singleton has no properties.
+	 *
+	 * @return	the exception, or null if loaded or not yet loaded
+	 */
+	public static Exception getInitFailure ()
+	{
+		return initFailure;
+	}
+
+	// Get the ConfigProperties, loading it or waiting for it if needed.
+	private static ConfigProperties instance ()
+	{
+		ConfigProperties instance_ = configProperties;
+
+		if (instance_ != null)
+		{
+			return instance_;
+		}
+		Loading current = loading ();
+
+		if (current.started.compareAndSet (false, true))
+		{
+			load (current);
+		}
+		current.loaded.join ();
+		return configProperties;
+	}
+
+	// Get the current load, a new one if none.
+	private static Loading loading ()
+	{
+		Loading current = loading;
+
+		if (current == null)
+		{
+			synchronized (ConfigPropertiesS.class)
+			{
+				if (loading == null)
+				{
+					loading = new Loading ();
+				}
+				current = loading;
+			}
+		}
+		return current;
+	}
+
+	// Load the default ConfigProperties.
+	private static void load (Loading current)
+	{
+		log.debug("Constructing singleton.");
+		long start = System.nanoTime ();
+		ConfigProperties instance_;
+
+		try
+		{
+			instance_ = new ConfigProperties ();
+			if (!instance_.getKeySet ().hasNext ())
+			{
+				log.debug ("Singleton has no properties defined.");
+			}
+		}
+		catch (Exception e)
+		{
+			log.error ("Exception creating singleton :\n" + e);
+			initFailure = e;
+			instance_ = empty ();
+		}
+		catch (Error e)
+		{
+			// Let the next call load again, before waiting calls see the
+			// failure.
+			synchronized (ConfigPropertiesS.class)
+			{
+				loading = null;
+			}
+			current.loaded.completeExceptionally (e);
+			throw e;
+		}
+		initMillis = TimeUnit.NANOSECONDS.toMillis (System.nanoTime ()-start);
+		log.debug ("Constructed singleton in "+initMillis+" ms.");
+
+		synchronized (ConfigPropertiesS.class)
+		{
+			if (configProperties == null)
+			{
+				configProperties = instance_;
+			}
+		}
+		current.loaded.complete (instance_);
+	}
+
+	// Get a ConfigProperties with no properties.
+	private static ConfigProperties empty ()
+	{
+		try
+		{
+			return new ConfigProperties (new String [0]);
+		}
+		catch (IOException e)
+		{
+			// Not thrown for no files.
+			throw new IllegalStateException (e);
+		}
+	}
+
+	/**
+	 * A load of the default ConfigProperties, as a future that callers
+	 * can wait on but not complete or cancel.
+	 */
+	private static final class Loading implements Future<ConfigProperties>
+	{
+		// True once loading has begun.
+		final AtomicBoolean	started	= new AtomicBoolean ();
+
+		// Completed with the ConfigProperties once loaded.
+		final CompletableFuture<ConfigProperties>	loaded	=
+			new CompletableFuture<ConfigProperties> ();
+
+		public boolean cancel (boolean mayInterruptIfRunning)
+		{
+			return false;
+		}
+
+		public boolean isCancelled ()
+		{
+			return false;
+		}
+
+		public boolean isDone ()
+		{
+			return loaded.isDone ();
+		}
+
+		public ConfigProperties get ()
+			throws InterruptedException, ExecutionException
+		{
+			return loaded.get ();
+		}
+
+		public ConfigProperties get (long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException
+		{
+			return loaded.get (timeout, unit);
+		}
 	}
 }
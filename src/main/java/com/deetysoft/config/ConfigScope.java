@@ -0,0 +1,266 @@
+package com.deetysoft.config;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Properties overridden temporarily on the current thread, such as the
+ * feature toggles of one request or the values of one test.
+ * While a scope is open, every {@link ConfigProperties} read on the thread
+ * sees the overrides, through a {@link ConfigOverlay} made for the scope,
+ * so values referring to an overridden property expand with the
+ * overriding value.
+ * Nothing shared is changed, so other threads are not affected.
+ * <p>
+ * Open a scope in a try-with-resources statement:
+ * <pre>
+ * try (ConfigScope scope = ConfigScope.open (overrides))
+ * {
+ *     ...
+ * }
+ * </pre>
+ * Scopes nest, the innermost overriding the outer ones, and are closed
+ * in reverse order on the thread that opened them.
+ * <p>
+ * A scope is not inherited by other threads, including threads started
+ * in it, so a pool thread created during one request never sees that
+ * request's overrides.
+ * To run a task in the current scope on another thread,
+ * {@link #wrap(Runnable) wrap} it.
+ * <p>
+ * When no scope is open and no wrapped task is running on any thread,
+ * reads check only a counter.
+ * While any is, reads on every thread also look up the thread local.
+ *
+ * @see ConfigOverlay
+ */
+public final class ConfigScope implements AutoCloseable
+{
+	// The scopes open and tasks wrapped in scopes now running, so reads
+	// skip the thread local when there are none.
+	private static final AtomicInteger	active	= new AtomicInteger ();
+
+	// The innermost scope of each thread.
+	private static final ThreadLocal<ConfigScope>	current	=
+		new ThreadLocal<ConfigScope> ();
+
+	// The enclosing scope, or null.
+	private final ConfigScope	parent;
+
+	// The overriding properties, a CompactMap.
+	private final Map<String, String>	overrides;
+
+	// The thread that opened the scope.
+	private final Thread	thread;
+
+	// The overlays made in this scope, by the properties they are over.
+	private final Map<ConfigProperties, ConfigOverlay>	overlays	=
+		new ConcurrentHashMap<ConfigProperties, ConfigOverlay> ();
+
+	// Set when closed, for wrapped tasks run after.
+	private volatile boolean	closed;
+
+	private ConfigScope (ConfigScope parent, Map<String, String> overrides)
+	{
+		this.parent = parent;
+		this.overrides = CompactMap.of (overrides);
+		thread = Thread.currentThread ();
+	}
+
+	/**
+	 * Open a scope on the current thread.
+	 *
+	 * @param	overrides	the overriding properties
+	 * @return				the scope, to be closed
+	 */
+	public static ConfigScope open (Map<String, String> overrides)
+	{
+		ConfigScope scope = new ConfigScope (current.get (), overrides);
+
+		current.set (scope);
+		active.incrementAndGet ();
+		return scope;
+	}
+
+	/**
+	 * Open a scope overriding one property on the current thread.
+	 *
+	 * @param	name	the property name
+	 * @param	value	the overriding value
+	 * @return			the scope, to be closed
+	 */
+	public static ConfigScope open (String name, String value)
+	{
+		return open (Collections.singletonMap (name, value));
+	}
+
+	/**
+	 * Get the innermost scope open on the current thread.
+	 *
+	 * @return	the scope, or null if none is open
+	 */
+	public static ConfigScope current ()
+	{
+		if (active.get () == 0)
+		{
+			return null;
+		}
+		ConfigScope scope = current.get ();
+
+		// A wrapped task may run in a scope since closed.
+		while (scope != null && scope.closed)
+		{
+			scope = scope.parent;
+		}
+		return scope;
+	}
+
+	/**
+	 * Get the overriding properties of this scope.
+	 *
+	 * @return	an unmodifiable map
+	 */
+	public Map<String, String> getOverrides ()
+	{
+		return overrides;
+	}
+
+	/**
+	 * Close the scope, restoring the enclosing one.
+	 *
+	 * @exception	IllegalStateException
+	 *				if not the innermost scope of the thread that opened it
+	 */
+	public void close ()
+	{
+		if (closed)
+		{
+			return;
+		}
+		if (Thread.currentThread () != thread || current.get () != this)
+		{
+			throw new IllegalStateException
+				("Config scope closed out of order or on another thread.");
+		}
+		closed = true;
+		if (parent == null)
+		{
+			current.remove ();
+		}
+		else
+		{
+			current.set (parent);
+		}
+		active.decrementAndGet ();
+	}
+
+	/**
+	 * Wrap a task to run in the current scope, on whatever thread runs it.
+	 *
+	 * @param	task	the task
+	 * @return			the wrapped task, or the task if no scope is open
+	 */
+	public static Runnable wrap (final Runnable task)
+	{
+		final ConfigScope scope = current ();
+
+		if (scope == null)
+		{
+			return task;
+		}
+		return new Runnable ()
+		{
+			public void run ()
+			{
+				ConfigScope previous = scope.enter ();
+				try
+				{
+					task.run ();
+				}
+				finally
+				{
+					exit (previous);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Wrap a task to run in the current scope, on whatever thread runs it.
+	 *
+	 * @param	task	the task
+	 * @param	<T>		the result type
+	 * @return			the wrapped task, or the task if no scope is open
+	 */
+	public static <T> Callable<T> wrap (final Callable<T> task)
+	{
+		final ConfigScope scope = current ();
+
+		if (scope == null)
+		{
+			return task;
+		}
+		return new Callable<T> ()
+		{
+			public T call () throws Exception
+			{
+				ConfigScope previous = scope.enter ();
+				try
+				{
+					return task.call ();
+				}
+				finally
+				{
+					exit (previous);
+				}
+			}
+		};
+	}
+
+	// Make this scope current for a wrapped task, returning the previous.
+	private ConfigScope enter ()
+	{
+		ConfigScope previous = current.get ();
+
+		current.set (this);
+		active.incrementAndGet ();
+		return previous;
+	}
+
+	// Restore the scope current before a wrapped task.
+	private static void exit (ConfigScope previous)
+	{
+		if (previous == null)
+		{
+			current.remove ();
+		}
+		else
+		{
+			current.set (previous);
+		}
+		active.decrementAndGet ();
+	}
+
+	/**
+	 * Get the overlay of this scope and the enclosing ones over some
+	 * properties.
+	 *
+	 * @param	configProperties	the properties
+	 * @return						the overlay
+	 */
+	ConfigOverlay overlay (ConfigProperties configProperties)
+	{
+		ConfigOverlay overlay = overlays.get (configProperties);
+
+		if (overlay == null)
+		{
+			overlay = parent == null ? configProperties.overlay (overrides)
+				: parent.overlay (configProperties).overlay (overrides);
+			overlays.put (configProperties, overlay);
+		}
+		return overlay;
+	}
+}
@@ -0,0 +1,90 @@
+package com.deetysoft.config;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Resolves names in a property file list to property content.
+ * <p>
+ * These sources are built in, and are tried after any others:
+ * <ul>
+ * <li>'memory:name' - properties put in {@link MemorySource}</li>
+ * <li>'classpath:name' - a CLASSPATH resource</li>
+ * <li>'glob:dir/pattern' - the files in a directory matching a
+ * {@link java.nio.file.FileSystem#getPathMatcher glob} pattern, in name
+ * order</li>
+ * <li>any other name - a file, or with no path a file in the working
+ * directory or else a CLASSPATH resource</li>
+ * </ul>
+ * Other sources are found with {@link java.util.ServiceLoader}, by listing
+ * them in 'META-INF/services/com.deetysoft.config.ConfigSource'.
+ * They are tried in the order found, before the built in sources, so they
+ * should only handle names with a prefix of their own.
+ * <p>
+ * Names are resolved once for each {@link ConfigProperties#init init}.
+ * CLASSPATH resources found are cached, a name not found is looked up
+ * again so that a resource added later is found.
+ *
+ * @see ConfigProperties
+ */
+public interface ConfigSource
+{
+	/**
+	 * Resolve a name.
+	 *
+	 * @param	name	the name in the file list
+	 * @param	loader	the class loader to search for resources
+	 * @return			the resources named, in merge order, none if not
+	 *					found, or null if the name is not for this source
+	 */
+	List<Resource> resolve (String name, ClassLoader loader);
+
+	/**
+	 * Property content found by a {@link ConfigSource}.
+	 */
+	interface Resource
+	{
+		/**
+		 * Get a location that identifies the resource.
+		 * A resource listed twice is merged once, in its last place.
+		 *
+		 * @return	the location
+		 */
+		String getLocation ();
+
+		/**
+		 * Read the content, in {@link java.util.Properties#load(java.io.InputStream)
+		 * Properties.load} format.
+		 *
+		 * @return				the content
+		 * @exception			IOException		trying to read the content
+		 */
+		ByteBuffer read () throws IOException;
+
+		/**
+		 * Get the modification time, used to check for changes when
+		 * reloading.
+		 *
+		 * @return				the time, or 0 if not known, in which case
+		 *						the content is compared
+		 * @exception			IOException		trying to get the time
+		 */
+		default long getLastModified () throws IOException
+		{
+			return 0;
+		}
+
+		/**
+		 * Get the file to watch for changes when reloading.
+		 *
+		 * @return	the absolute path or null if the resource is not a file,
+		 *			in which case it is polled
+		 */
+		default Path getPath ()
+		{
+			return null;
+		}
+	}
+}
@@ -0,0 +1,396 @@
+package com.deetysoft.config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@link ConfigSource}s, and the built in sources and resources.
+ */
+final class ConfigSources
+{
+	/**
+	 * The prefix for a CLASSPATH resource - 'classpath:'.
+	 */
+	static final String	CLASSPATH_PREFIX	= "classpath:";
+
+	/**
+	 * The prefix for a directory glob - 'glob:'.
+	 */
+	static final String	GLOB_PREFIX	= "glob:";
+
+	// The sources found by ServiceLoader then the built in sources,
+	// found when first needed.
+	private static volatile List<ConfigSource>	sources;
+
+	// The CLASSPATH resources found, by class loader and name.
+	// A name not found is not kept, so a resource added later is found,
+	// and no value refers to its loader, which would keep the loader.
+	private static final Map<ClassLoader, Map<String, URL>>	resources	=
+		new WeakHashMap<ClassLoader, Map<String, URL>> ();
+
+	private ConfigSources ()
+	{
+	}
+
+	/**
+	 * Resolve a name in a property file list.
+	 *
+	 * @param	name	the name
+	 * @param	loader	the class loader to search
+	 * @return			the property files, in merge order
+	 */
+	static List<PropertyFile> resolve (String name, ClassLoader loader)
+	{
+		for (ConfigSource source : getSources ())
+		{
+			List<ConfigSource.Resource> found = source.resolve (name, loader);
+
+			if (found == null)
+			{
+				continue;
+			}
+			List<PropertyFile> files = new ArrayList<PropertyFile> (found.size ());
+			for (ConfigSource.Resource resource : found)
+			{
+				files.add (new PropertyFile (name, resource));
+			}
+			return files;
+		}
+		return Collections.emptyList ();
+	}
+
+	// Get the sources, finding them the first time.
+	private static List<ConfigSource> getSources ()
+	{
+		List<ConfigSource> list = sources;
+
+		if (list == null)
+		{
+			list = new ArrayList<ConfigSource> ();
+			for (ConfigSource source : ServiceLoader.load (ConfigSource.class,
+				ConfigSource.class.getClassLoader ()))
+			{
+				list.add (source);
+			}
+			list.add (new MemorySource ());
+			list.add (new ClasspathSource ());
+			list.add (new GlobSource ());
+			list.add (new FileSource ());
+			list = Collections.unmodifiableList (list);
+			sources = list;
+		}
+		return list;
+	}
+
+	/**
+	 * Find a CLASSPATH resource.
+	 * A resource found is remembered for each class loader and name, a
+	 * name not found is looked up again each time.
+	 *
+	 * @param	name	the resource name
+	 * @param	loader	the class loader to search
+	 * @return			the resource or null if not found
+	 */
+	static URL findResource (String name, ClassLoader loader)
+	{
+		Map<String, URL> found;
+
+		synchronized (resources)
+		{
+			found = resources.get (loader);
+			if (found == null)
+			{
+				found = new ConcurrentHashMap<String, URL> ();
+				resources.put (loader, found);
+			}
+		}
+
+		URL url = found.get (name);
+
+		if (url == null)
+		{
+			url = loader.getResource (name);
+			if (url != null)
+			{
+				found.put (name, url);
+			}
+		}
+		return url;
+	}
+
+	// Get a list of no or one resource.
+	private static List<ConfigSource.Resource> list (ConfigSource.Resource resource)
+	{
+		return resource == null ? Collections.<ConfigSource.Resource>emptyList ()
+			: Collections.singletonList (resource);
+	}
+
+	/**
+	 * Resources named 'classpath:name'.
+	 */
+	static final class ClasspathSource implements ConfigSource
+	{
+		public List<Resource> resolve (String name, ClassLoader loader)
+		{
+			if (!name.startsWith (CLASSPATH_PREFIX))
+			{
+				return null;
+			}
+			URL url = findResource (name.substring (CLASSPATH_PREFIX.length ()), loader);
+			return list (url == null ? null : new UrlResource (url));
+		}
+	}
+
+	/**
+	 * Files named 'glob:dir/pattern'.
+	 */
+	static final class GlobSource implements ConfigSource
+	{
+		public List<Resource> resolve (String name, ClassLoader loader)
+		{
+			if (!name.startsWith (GLOB_PREFIX))
+			{
+				return null;
+			}
+			File glob = new File (name.substring (GLOB_PREFIX.length ()));
+			File dir = glob.getAbsoluteFile ().getParentFile ();
+			List<Path> paths = new ArrayList<Path> ();
+
+			try
+			{
+				DirectoryStream<Path> stream = Files.newDirectoryStream
+					(dir.toPath (), glob.getName ());
+				try
+				{
+					for (Path path : stream)
+					{
+						if (Files.isRegularFile (path))
+						{
+							paths.add (path);
+						}
+					}
+				}
+				finally
+				{
+					stream.close ();
+				}
+			}
+			catch (NoSuchFileException e)
+			{
+				// No files.
+			}
+			catch (NotDirectoryException e)
+			{
+				// No files.
+			}
+			catch (IOException e)
+			{
+				throw new IllegalArgumentException ("Can't list property files '"+
+					name+"' :\n" + e);
+			}
+			Collections.sort (paths);
+
+			List<Resource> list = new ArrayList<Resource> (paths.size ());
+			for (Path path : paths)
+			{
+				list.add (new FileResource (path.toFile ()));
+			}
+			return list;
+		}
+	}
+
+	/**
+	 * Any other name.
+	 * If no path is specified for the file, search the working directory
+	 * and then the CLASSPATH.
+	 */
+	static final class FileSource implements ConfigSource
+	{
+		public List<Resource> resolve (String name, ClassLoader loader)
+		{
+			File file = new File (name);
+
+			if (file.getParent () == null)
+			{
+				// See if it is in the working dir.
+
+				boolean exists = false;
+
+				// Allow for security exception.
+				try
+				{
+					exists = file.exists ();
+				}
+				catch (Exception e)
+				{
+					System.out.println ("Property file "+file.getName()+" not found, searching CLASSPATH.");
+				}
+
+				if (!exists)
+				{
+					// Search the CLASSPATH for the file.
+					URL url = findResource (name, loader);
+
+					return list (url == null ? null : new UrlResource (url));
+				}
+			}
+			return list (new FileResource (file));
+		}
+	}
+
+	/**
+	 * A file.
+	 */
+	static final class FileResource implements ConfigSource.Resource
+	{
+		// The smallest file mapped into memory rather than read.
+		private static final long	MAP_THRESHOLD	= 1 << 20;
+
+		private final File	file;
+
+		FileResource (File file)
+		{
+			this.file = file;
+		}
+
+		public String getLocation ()
+		{
+			return file.getAbsolutePath ();
+		}
+
+		// A large file is mapped rather than copied to the heap.
+		public ByteBuffer read () throws IOException
+		{
+			FileChannel channel = FileChannel.open (file.toPath (),
+				StandardOpenOption.READ);
+			try
+			{
+				long size = channel.size ();
+
+				if (size >= MAP_THRESHOLD)
+				{
+					return channel.map (FileChannel.MapMode.READ_ONLY, 0, size);
+				}
+				ByteBuffer buffer = ByteBuffer.allocate ((int) size);
+				while (buffer.hasRemaining () && channel.read (buffer) >= 0)
+				{
+					// Read until full or at the end.
+				}
+				buffer.flip ();
+				return buffer;
+			}
+			finally
+			{
+				channel.close ();
+			}
+		}
+
+		public long getLastModified ()
+		{
+			return file.lastModified ();
+		}
+
+		public Path getPath ()
+		{
+			return file.getAbsoluteFile ().toPath ().normalize ();
+		}
+	}
+
+	/**
+	 * A URL, usually a CLASSPATH resource.
+	 */
+	static final class UrlResource implements ConfigSource.Resource
+	{
+		private final URL	url;
+
+		UrlResource (URL url)
+		{
+			this.url = url;
+		}
+
+		public String getLocation ()
+		{
+			return url.toString ();
+		}
+
+		public ByteBuffer read () throws IOException
+		{
+			InputStream stream = url.openStream ();
+			try
+			{
+				ByteArrayOutputStream out = new ByteArrayOutputStream ();
+				byte[] buffer = new byte [8192];
+				int n;
+				while ((n = stream.read (buffer)) != -1)
+				{
+					out.write (buffer, 0, n);
+				}
+				return ByteBuffer.wrap (out.toByteArray ());
+			}
+			finally
+			{
+				stream.close ();
+			}
+		}
+
+		public long getLastModified () throws IOException
+		{
+			Path path = getPath ();
+
+			if (path != null)
+			{
+				return path.toFile ().lastModified ();
+			}
+			URLConnection connection = url.openConnection ();
+			try
+			{
+				return connection.getLastModified ();
+			}
+			finally
+			{
+				connection.getInputStream ().close ();
+			}
+		}
+
+		public Path getPath ()
+		{
+			try
+			{
+				if ("file".equals (url.getProtocol ()))
+				{
+					return Paths.get (url.toURI ()).normalize ();
+				}
+			}
+			catch (URISyntaxException e)
+			{
+				// Not a file.
+			}
+			catch (IllegalArgumentException e)
+			{
+				// Not a file.
+			}
+			return null;
+		}
+	}
+}
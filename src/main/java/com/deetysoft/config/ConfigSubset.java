@@ -0,0 +1,152 @@
+package com.deetysoft.config;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Spliterator;
+
+/**
+ * The properties of a {@link ConfigProperties} whose names begin with a
+ * prefix, named without the prefix.
+ * For example, with the prefix 'db.primary.' the property
+ * 'db.primary.url' is read as {@link #get get("url")}.
+ * <p>
+ * A subset is a view, so it sees the properties after each
+ * {@link ConfigProperties#init init} or reload.
+ * Get one from {@link ConfigProperties#subset ConfigProperties.subset}.
+ *
+ * @see ConfigProperties
+ */
+public final class ConfigSubset
+{
+	// The properties viewed.
+	private final ConfigProperties	configProperties;
+
+	// The name prefix.
+	private final String			prefix;
+
+	ConfigSubset (ConfigProperties configProperties, String prefix)
+	{
+		this.configProperties = configProperties;
+		this.prefix = prefix;
+	}
+
+	/**
+	 * Get the name prefix.
+	 *
+	 * @return	the prefix
+	 */
+	public String getPrefix ()
+	{
+		return prefix;
+	}
+
+	/**
+	 * Get the value for the given property, expanding if necessary.
+	 * See {@link ConfigProperties#get(String)}.
+	 *
+	 * @param	name	the property name without the prefix
+	 * @return			the value
+	 * @exception		MissingPropertyException
+	 *					if property or any nested property not found
+	 * @exception		StringFormatException
+	 *					if property value has unmatched substitution
+	 *					delimiters
+	 */
+	public String get (String name)
+		throws MissingPropertyException, StringFormatException
+	{
+		return configProperties.get (prefix+name);
+	}
+
+	/**
+	 * Get the value for the given property with run-time args.
+	 * See {@link ConfigProperties#get(String, String[])}.
+	 *
+	 * @param	name	the property name without the prefix
+	 * @param	args	the run-time args
+	 * @return			the value
+	 * @exception		MissingPropertyException
+	 *					if property or any nested property not found
+	 * @exception		StringFormatException
+	 *					if property value has unmatched substitution
+	 *					delimiters
+	 */
+	public String get (String name, String[] args)
+		throws MissingPropertyException, StringFormatException
+	{
+		return configProperties.get (prefix+name, args);
+	}
+
+	/**
+	 * Get the value for the given property without expanding.
+	 *
+	 * @param	name	the property name without the prefix
+	 * @return			the value
+	 * @exception		MissingPropertyException
+	 *					if property not found
+	 */
+	public String getUnexpanded (String name)
+		throws MissingPropertyException
+	{
+		return configProperties.getUnexpanded (prefix+name);
+	}
+
+	/**
+	 * Get the values of all properties in the subset.
+	 * See {@link ConfigProperties#getAll(Collection)}.
+	 *
+	 * @return			an unmodifiable map of the values by name without
+	 *					the prefix, in sorted order
+	 * @exception		InvalidPropertiesException
+	 *					reporting every property that could not be
+	 *					expanded, by full name
+	 */
+	public Map<String, String> getAll ()
+		throws InvalidPropertiesException
+	{
+		Map<String, String> values = new LinkedHashMap<String, String> ();
+
+		for (Map.Entry<String, String> entry
+			: configProperties.getAll (prefix).entrySet ())
+		{
+			values.put (entry.getKey ().substring (prefix.length ()), entry.getValue ());
+		}
+		return Collections.unmodifiableMap (values);
+	}
+
+	/**
+	 * Get an iterator over the property names in the subset, without the
+	 * prefix, in sorted order.
+	 *
+	 * @return	an iterator over strings
+	 */
+	public Iterator<String> getKeySet ()
+	{
+		return configProperties.snapshot.getIndex ().iterator (prefix, true);
+	}
+
+	/**
+	 * Get a subset of this subset.
+	 *
+	 * @param	prefix	the name prefix, after this subset's prefix
+	 * @return			the subset
+	 */
+	public ConfigSubset subset (String prefix)
+	{
+		return new ConfigSubset (configProperties, this.prefix+prefix);
+	}
+
+	/**
+	 * Get a spliterator over the full property names in the subset.
+	 * See {@link ConfigProperties#spliterator(String)}.
+	 *
+	 * @return	the spliterator
+	 */
+	public Spliterator<String> spliterator ()
+	{
+		return configProperties.spliterator (prefix);
+	}
+}
@@ -0,0 +1,172 @@
+package com.deetysoft.config;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The graph of '%name%' references between property values.
+ * The graph is built when properties are merged.
+ * It finds reference cycles before any value is expanded and gives the
+ * properties that depend on a changed property.
+ */
+final class DependencyGraph
+{
+	/**
+	 * The graph with no references.
+	 */
+	static final DependencyGraph	EMPTY	= new DependencyGraph
+		(Collections.<String, Template>emptyMap ());
+
+	// The properties referencing each property.
+	private final Map<String, List<String>>	dependents	=
+		new HashMap<String, List<String>> ();
+
+	// The properties having 'env.' references.
+	final Set<String>	envNames	= new HashSet<String> ();
+
+	// The cycle description for properties found on a cycle.
+	final Map<String, String>	cycles	= new HashMap<String, String> ();
+
+	/**
+	 * Build the graph for the given templates.
+	 *
+	 * @param	templates	the compiled values by property name
+	 */
+	DependencyGraph (Map<String, Template> templates)
+	{
+		for (Template template : templates.values ())
+		{
+			for (int i = 0; i < template.references.length; i++)
+			{
+				if (template.env [i])
+				{
+					envNames.add (template.name);
+					continue;
+				}
+				List<String> list = dependents.get (template.references [i]);
+				if (list == null)
+				{
+					list = new ArrayList<String> (2);
+					dependents.put (template.references [i], list);
+				}
+				list.add (template.name);
+			}
+		}
+		findCycles (templates);
+	}
+
+	/**
+	 * Find cycles with a depth first search.
+	 * Every cycle has a back edge to a property on the search path,
+	 * and that property is recorded, so expanding any property on a cycle
+	 * reaches a recorded property.
+	 */
+	private void findCycles (Map<String, Template> templates)
+	{
+		// Properties on the search path map to true, finished to false.
+		Map<String, Boolean> visited = new HashMap<String, Boolean> ();
+
+		List<String> path = new ArrayList<String> ();
+		List<Integer> next = new ArrayList<Integer> ();
+
+		for (String root : templates.keySet ())
+		{
+			if (visited.containsKey (root))
+			{
+				continue;
+			}
+			path.add (root);
+			next.add (0);
+			visited.put (root, Boolean.TRUE);
+
+			while (!path.isEmpty ())
+			{
+				int top = path.size ()-1;
+				Template template = templates.get (path.get (top));
+				int i = next.get (top);
+
+				if (i == template.references.length)
+				{
+					visited.put (path.remove (top), Boolean.FALSE);
+					next.remove (top);
+					continue;
+				}
+				next.set (top, i+1);
+
+				String reference = template.references [i];
+
+				if (template.env [i] || !templates.containsKey (reference))
+				{
+					continue;
+				}
+
+				Boolean onPath = visited.get (reference);
+
+				if (onPath == null)
+				{
+					path.add (reference);
+					next.add (0);
+					visited.put (reference, Boolean.TRUE);
+				}
+				else if (onPath)
+				{
+					List<String> cycle = path.subList
+						(path.lastIndexOf (reference), path.size ());
+
+					StringBuilder description = new StringBuilder ();
+					for (String name : cycle)
+					{
+						description.append (name).append (" -> ");
+					}
+					description.append (reference);
+
+					for (String name : cycle)
+					{
+						if (!cycles.containsKey (name))
+						{
+							cycles.put (name, description.toString ());
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the given properties and all properties that depend on them,
+	 * directly or through other references.
+	 *
+	 * @param	names	the property names
+	 * @return			the names and their dependents
+	 */
+	Set<String> getDependents (Collection<String> names)
+	{
+		Set<String> result = new HashSet<String> (names);
+		ArrayDeque<String> queue = new ArrayDeque<String> (names);
+
+		while (!queue.isEmpty ())
+		{
+			List<String> list = dependents.get (queue.poll ());
+
+			if (list == null)
+			{
+				continue;
+			}
+			for (String name : list)
+			{
+				if (result.add (name))
+				{
+					queue.add (name);
+				}
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,51 @@
+package com.deetysoft.config;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * One or more properties can't be expanded.
+ */
+@SuppressWarnings("serial")
+public class InvalidPropertiesException extends Exception
+{
+	// The errors by property name.
+	private final SortedMap<String, Exception>	errors;
+
+	/**
+	 * Construct using the errors found for each property.
+	 * 
+	 * @param	errors	the errors by property name
+	 */
+	public InvalidPropertiesException (SortedMap<String, Exception> errors)
+	{
+		super (message (errors));
+		this.errors = Collections.unmodifiableSortedMap (errors);
+	}
+
+	/**
+	 * Get the errors.
+	 * Each is a {@link MissingPropertyException} or a
+	 * {@link StringFormatException}.
+	 *
+	 * @return	the errors by property name
+	 */
+	public SortedMap<String, Exception> getErrors ()
+	{
+		return errors;
+	}
+
+	private static String message (Map<String, Exception> errors)
+	{
+		StringBuilder builder = new StringBuilder ();
+		builder.append (errors.size ()).append (" invalid properties :");
+
+		for (Map.Entry<String, Exception> entry : errors.entrySet ())
+		{
+			builder.append ("\n'").append (entry.getKey ()).append ("' : ")
+				.append (entry.getValue ().getMessage ());
+		}
+		return builder.toString ();
+	}
+}
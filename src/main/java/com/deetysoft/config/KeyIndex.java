@@ -0,0 +1,162 @@
+package com.deetysoft.config;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+
+/**
+ * The property names of a {@link Snapshot} in sorted order.
+ * Names with a common prefix are adjacent, so the names under a prefix
+ * are found by two binary searches.
+ */
+final class KeyIndex
+{
+	// The sorted names.
+	private final String[]	names;
+
+	private KeyIndex (String[] names)
+	{
+		this.names = names;
+	}
+
+	/**
+	 * Create an index of the given names.
+	 *
+	 * @param	names	the names, without duplicates
+	 * @return			the index
+	 */
+	static KeyIndex of (Collection<String> names)
+	{
+		String[] sorted = names.toArray (new String [names.size ()]);
+		Arrays.sort (sorted);
+		return new KeyIndex (sorted);
+	}
+
+	/**
+	 * Create an index with the given names added to these.
+	 * Only the added names are sorted.
+	 *
+	 * @param	additions	the names to add
+	 * @return				the new index
+	 */
+	KeyIndex with (Collection<String> additions)
+	{
+		String[] added = new String [additions.size ()];
+		int count = 0;
+
+		for (String name : additions)
+		{
+			if (Arrays.binarySearch (names, name) < 0)
+			{
+				added [count++] = name;
+			}
+		}
+		if (count == 0)
+		{
+			return this;
+		}
+		Arrays.sort (added, 0, count);
+
+		String[] merged = new String [names.length+count];
+		int i = 0;
+		int j = 0;
+		for (int k = 0; k < merged.length; k++)
+		{
+			if (j == count || (i < names.length && names [i].compareTo (added [j]) < 0))
+			{
+				merged [k] = names [i++];
+			}
+			else
+			{
+				merged [k] = added [j++];
+			}
+		}
+		return new KeyIndex (merged);
+	}
+
+	/**
+	 * Get an iterator over the names beginning with a prefix, in order.
+	 *
+	 * @param	prefix	the prefix
+	 * @param	strip	true to leave the prefix out of the names returned
+	 * @return			the iterator
+	 */
+	Iterator<String> iterator (final String prefix, final boolean strip)
+	{
+		final int from = from (prefix);
+		final int to = to (prefix, from);
+
+		return new Iterator<String> ()
+		{
+			private int	next	= from;
+
+			public boolean hasNext ()
+			{
+				return next < to;
+			}
+
+			public String next ()
+			{
+				if (next >= to)
+				{
+					throw new NoSuchElementException ();
+				}
+				String name = names [next++];
+				return strip ? name.substring (prefix.length ()) : name;
+			}
+
+			public void remove ()
+			{
+				throw new UnsupportedOperationException ();
+			}
+		};
+	}
+
+	/**
+	 * Get a spliterator over the names beginning with a prefix.
+	 * It splits in halves, for streaming large ranges in parallel.
+	 *
+	 * @param	prefix	the prefix
+	 * @return			the spliterator
+	 */
+	Spliterator<String> spliterator (String prefix)
+	{
+		int from = from (prefix);
+
+		return Spliterators.spliterator (names, from, to (prefix, from),
+			Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT
+			| Spliterator.NONNULL | Spliterator.IMMUTABLE);
+	}
+
+	// Find the first name not less than the prefix.
+	private int from (String prefix)
+	{
+		int index = Arrays.binarySearch (names, prefix);
+		return index < 0 ? -index-1 : index;
+	}
+
+	// Find the first name after from not beginning with the prefix.
+	private int to (String prefix, int from)
+	{
+		int low = from;
+		int high = names.length;
+
+		while (low < high)
+		{
+			int middle = (low+high) >>> 1;
+
+			if (names [middle].startsWith (prefix))
+			{
+				low = middle+1;
+			}
+			else
+			{
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
@@ -0,0 +1,126 @@
+package com.deetysoft.config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Properties held in memory, named 'memory:name' in a property file list.
+ * Put properties here, then list them like a file, for example to supply
+ * defaults or test values without writing a file.
+ * Properties put again are found by a reload.
+ *
+ * @see ConfigSource
+ */
+public final class MemorySource implements ConfigSource
+{
+	/**
+	 * The name prefix - 'memory:'.
+	 */
+	public static final String	PREFIX	= "memory:";
+
+	// The content by name.
+	private static final Map<String, Content>	contents	=
+		new ConcurrentHashMap<String, Content> ();
+
+	// Counts changes, standing in for a modification time.
+	private static final AtomicLong	version	= new AtomicLong ();
+
+	/**
+	 * Put properties in memory.
+	 *
+	 * @param	name		the name, without the prefix
+	 * @param	properties	the properties
+	 */
+	public static void put (String name, Map<String, String> properties)
+	{
+		Properties p = new Properties ();
+		p.putAll (properties);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream ();
+		try
+		{
+			p.store (out, null);
+		}
+		catch (IOException e)
+		{
+			// Not thrown writing to memory.
+			throw new IllegalStateException (e);
+		}
+		contents.put (name, new Content (out.toByteArray (), version.incrementAndGet ()));
+	}
+
+	/**
+	 * Remove properties from memory.
+	 *
+	 * @param	name	the name, without the prefix
+	 */
+	public static void remove (String name)
+	{
+		contents.remove (name);
+	}
+
+	public List<Resource> resolve (String name, ClassLoader loader)
+	{
+		if (!name.startsWith (PREFIX))
+		{
+			return null;
+		}
+		final String key = name.substring (PREFIX.length ());
+
+		if (!contents.containsKey (key))
+		{
+			return Collections.emptyList ();
+		}
+		return Collections.<Resource>singletonList (new Resource ()
+		{
+			public String getLocation ()
+			{
+				return PREFIX+key;
+			}
+
+			public ByteBuffer read () throws IOException
+			{
+				return ByteBuffer.wrap (get (key).bytes).asReadOnlyBuffer ();
+			}
+
+			public long getLastModified () throws IOException
+			{
+				return get (key).version;
+			}
+		});
+	}
+
+	// Get the content, which may have been removed.
+	private static Content get (String key) throws IOException
+	{
+		Content content = contents.get (key);
+
+		if (content == null)
+		{
+			throw new IOException ("Property source '"+PREFIX+key+"' not found.");
+		}
+		return content;
+	}
+
+	/**
+	 * Properties put in memory.
+	 */
+	private static final class Content
+	{
+		final byte[]	bytes;
+		final long		version;
+
+		Content (byte[] bytes, long version)
+		{
+			this.bytes = bytes;
+			this.version = version;
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package com.deetysoft.config;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A property file read by a {@link ConfigProperties}.
+ * A PropertyFile remembers where its file was found and the properties
+ * last read from it, so that it can be checked for changes and re-read
+ * on its own.
+ */
+final class PropertyFile
+{
+	// The name as given in the file list.
+	final String	name;
+
+	// Where the content is found.
+	final ConfigSource.Resource	resource;
+
+	// The resource location.
+	final String	location;
+
+	// The properties last read.
+	volatile Map<String, String>	properties	= CompactMap.EMPTY;
+
+	// The time taken by the last load, in nanoseconds.
+	volatile long	loadNanos;
+
+	// The modification time and checksum of the content last read.
+	private long	lastModified;
+	private long	checksum	= -1;
+
+	// True if the content could not be read when last checked.
+	private boolean	unreadable;
+
+	PropertyFile (String name, ConfigSource.Resource resource)
+	{
+		this.name = name;
+		this.resource = resource;
+		location = resource.getLocation ();
+	}
+
+	/**
+	 * Get the path of the file to watch for changes.
+	 *
+	 * @return	the absolute path or null if the content is not in
+	 *			the file system
+	 */
+	Path getPath ()
+	{
+		return resource.getPath ();
+	}
+
+	/**
+	 * Read the properties.
+	 *
+	 * @return			true if the content changed since last read
+	 * @exception		IOException		trying to read the file
+	 */
+	synchronized boolean load () throws IOException
+	{
+		long start = System.nanoTime ();
+		try
+		{
+			return loadContent ();
+		}
+		finally
+		{
+			loadNanos = System.nanoTime ()-start;
+		}
+	}
+
+	// Read the properties if the content changed.
+	private boolean loadContent () throws IOException
+	{
+		long modified = getLastModified ();
+		ByteBuffer content = read ();
+		long crc = checksum (content);
+
+		lastModified = modified;
+
+		if (crc == checksum)
+		{
+			return false;
+		}
+		checksum = crc;
+
+		HashMap<String, String> map = new HashMap<String, String> ();
+		PropertyParser.parse (content, map);
+		properties = CompactMap.of (map);
+		return true;
+	}
+
+	/**
+	 * Get the checksum of the content last read.
+	 *
+	 * @return	the CRC-32, -1 if not read
+	 */
+	synchronized long getChecksum ()
+	{
+		return checksum;
+	}
+
+	/**
+	 * Read the content and get its checksum.
+	 *
+	 * @return				the CRC-32
+	 * @exception			IOException		trying to read the file
+	 */
+	long readChecksum () throws IOException
+	{
+		return checksum (read ());
+	}
+
+	/**
+	 * Check whether the file may have changed since last read.
+	 * Compare the modification time, or the checksum when the time is
+	 * not known.
+	 * A file that can't be read is changed when it becomes unreadable
+	 * and again when it becomes readable, not at each check between.
+	 *
+	 * @return	true if changed
+	 */
+	synchronized boolean isModified ()
+	{
+		boolean wasUnreadable = unreadable;
+
+		try
+		{
+			long modified = getLastModified ();
+			boolean changed = modified != 0 ? modified != lastModified
+				: checksum (read ()) != checksum;
+
+			unreadable = false;
+			return changed || wasUnreadable;
+		}
+		catch (IOException e)
+		{
+			// Let load report it, once.
+			unreadable = true;
+			return !wasUnreadable;
+		}
+	}
+
+	// Get the modification time, 0 if not known.
+	private long getLastModified () throws IOException
+	{
+		return resource.getLastModified ();
+	}
+
+	// Read the content.
+	private ByteBuffer read () throws IOException
+	{
+		return resource.read ();
+	}
+
+	// Get the checksum of the content.
+	private static long checksum (ByteBuffer content)
+	{
+		CRC32 crc = new CRC32 ();
+		crc.update (content.duplicate ());
+		return crc.getValue ();
+	}
+}
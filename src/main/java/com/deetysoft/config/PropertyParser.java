@@ -0,0 +1,324 @@
+package com.deetysoft.config;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Parses property file content in the format read by
+ * {@link java.util.Properties#load(java.io.InputStream) Properties.load}.
+ * <p>
+ * The content is ISO 8859-1 with '\\uxxxx' escapes.
+ * Lines are continued by an odd number of trailing '\\'.
+ * Comment lines begin with '#' or '!', as in the Java 8 Properties.load -
+ * a line continuing a bare '\\' is not a comment, though later JDKs read it
+ * as one.
+ * A name ends at the first unescaped '=', ':' or white space.
+ * <p>
+ * The parser reads the buffer in one pass and puts each property into the
+ * target map, with no intermediate Properties.
+ * The same property repeated keeps its last value.
+ */
+final class PropertyParser
+{
+	// The content.
+	private final ByteBuffer	in;
+
+	// The current logical line, with continuations joined.
+	private char[]	line	= new char [128];
+
+	// The converted name or value.
+	private char[]	out		= new char [128];
+
+	private PropertyParser (ByteBuffer in)
+	{
+		this.in = in;
+	}
+
+	/**
+	 * Parse properties into a map.
+	 *
+	 * @param	in		the content, from its position to its limit
+	 * @param	target	the map to put properties in
+	 * @exception		IllegalArgumentException
+	 *					if the content has a malformed '\\uxxxx' escape
+	 */
+	static void parse (ByteBuffer in, Map<String, String> target)
+	{
+		PropertyParser parser = new PropertyParser (in.duplicate ());
+		int length;
+
+		while ((length = parser.readLine ()) >= 0)
+		{
+			parser.parseLine (length, target);
+		}
+	}
+
+	// Split a logical line into name and value, see Properties.load.
+	private void parseLine (int length, Map<String, String> target)
+	{
+		int nameLength = 0;
+		int valueStart = length;
+		boolean hasSeparator = false;
+		boolean precedingBackslash = false;
+
+		while (nameLength < length)
+		{
+			char c = line [nameLength];
+
+			if ((c == '=' || c == ':') && !precedingBackslash)
+			{
+				valueStart = nameLength+1;
+				hasSeparator = true;
+				break;
+			}
+			if (isWhitespace (c) && !precedingBackslash)
+			{
+				valueStart = nameLength+1;
+				break;
+			}
+			precedingBackslash = c == '\\' ? !precedingBackslash : false;
+			nameLength++;
+		}
+		while (valueStart < length)
+		{
+			char c = line [valueStart];
+
+			if (!isWhitespace (c))
+			{
+				if (!hasSeparator && (c == '=' || c == ':'))
+				{
+					hasSeparator = true;
+				}
+				else
+				{
+					break;
+				}
+			}
+			valueStart++;
+		}
+		String name = convert (0, nameLength);
+		String value = convert (valueStart, length-valueStart);
+		target.put (name, value);
+	}
+
+	/**
+	 * Read the next logical line into the line buffer.
+	 * Leading white space, comment and blank lines are skipped and
+	 * continuation lines are joined.
+	 *
+	 * @return	the line length or -1 at the end of the content
+	 */
+	private int readLine ()
+	{
+		int length = 0;
+		boolean skipWhitespace = true;
+		boolean appendedLineBegin = false;
+		boolean precedingBackslash = false;
+
+		// True until the first character of a logical line, which is a
+		// comment if it is '#' or '!'.
+		// A continued line is not a new line, even when nothing precedes
+		// the '\\'.
+		boolean isNewLine = true;
+
+		while (true)
+		{
+			if (!in.hasRemaining ())
+			{
+				if (length == 0)
+				{
+					return -1;
+				}
+				return precedingBackslash ? length-1 : length;
+			}
+			char c = (char) (in.get () & 0xff);
+
+			if (skipWhitespace)
+			{
+				if (isWhitespace (c))
+				{
+					continue;
+				}
+				if (!appendedLineBegin && (c == '\r' || c == '\n'))
+				{
+					continue;
+				}
+				skipWhitespace = false;
+				appendedLineBegin = false;
+			}
+
+			// A comment, at the start of a logical line.
+			if (isNewLine)
+			{
+				isNewLine = false;
+
+				if (c == '#' || c == '!')
+				{
+					while (true)
+					{
+						if (!in.hasRemaining ())
+						{
+							return -1;
+						}
+						c = (char) (in.get () & 0xff);
+						if (c == '\r' || c == '\n')
+						{
+							break;
+						}
+					}
+					skipWhitespace = true;
+					isNewLine = true;
+					continue;
+				}
+			}
+
+			if (c != '\n' && c != '\r')
+			{
+				if (length == line.length)
+				{
+					line = grow (line);
+				}
+				line [length++] = c;
+				precedingBackslash = c == '\\' ? !precedingBackslash : false;
+				continue;
+			}
+
+			// The end of a natural line.
+			if (length == 0)
+			{
+				skipWhitespace = true;
+				isNewLine = true;
+				continue;
+			}
+			if (!in.hasRemaining ())
+			{
+				return precedingBackslash ? length-1 : length;
+			}
+			if (!precedingBackslash)
+			{
+				return length;
+			}
+
+			// The '\\' is not part of the line, which continues on the
+			// next natural line.
+			length--;
+			skipWhitespace = true;
+			appendedLineBegin = true;
+			precedingBackslash = false;
+			if (c == '\r' && in.get (in.position ()) == '\n')
+			{
+				in.get ();
+			}
+		}
+	}
+
+	// Convert escapes in part of the line buffer, see Properties.load.
+	private String convert (int offset, int length)
+	{
+		int end = offset+length;
+		int backslash = offset;
+
+		while (backslash < end && line [backslash] != '\\')
+		{
+			backslash++;
+		}
+		if (backslash == end)
+		{
+			return new String (line, offset, length);
+		}
+
+		if (out.length < length)
+		{
+			out = new char [Math.max (length, out.length*2)];
+		}
+		int n = 0;
+
+		while (offset < end)
+		{
+			char c = line [offset++];
+
+			if (c != '\\')
+			{
+				out [n++] = c;
+				continue;
+			}
+			if (offset == end)
+			{
+				// A trailing '\' with nothing to escape is dropped.
+				break;
+			}
+			c = line [offset++];
+
+			if (c == 'u')
+			{
+				if (offset > end-4)
+				{
+					throw new IllegalArgumentException ("Malformed \\uxxxx encoding.");
+				}
+				int value = 0;
+
+				for (int i = 0; i < 4; i++)
+				{
+					int digit = hexDigit (line [offset++]);
+
+					if (digit < 0)
+					{
+						throw new IllegalArgumentException ("Malformed \\uxxxx encoding.");
+					}
+					value = (value << 4)+digit;
+				}
+				out [n++] = (char) value;
+			}
+			else if (c == 't')
+			{
+				out [n++] = '\t';
+			}
+			else if (c == 'r')
+			{
+				out [n++] = '\r';
+			}
+			else if (c == 'n')
+			{
+				out [n++] = '\n';
+			}
+			else if (c == 'f')
+			{
+				out [n++] = '\f';
+			}
+			else
+			{
+				out [n++] = c;
+			}
+		}
+		return new String (out, 0, n);
+	}
+
+	private static int hexDigit (char c)
+	{
+		if (c >= '0' && c <= '9')
+		{
+			return c-'0';
+		}
+		if (c >= 'a' && c <= 'f')
+		{
+			return c-'a'+10;
+		}
+		if (c >= 'A' && c <= 'F')
+		{
+			return c-'A'+10;
+		}
+		return -1;
+	}
+
+	private static boolean isWhitespace (char c)
+	{
+		return c == ' ' || c == '\t' || c == '\f';
+	}
+
+	private static char[] grow (char[] a)
+	{
+		char[] grown = new char [a.length*2];
+		System.arraycopy (a, 0, grown, 0, a.length);
+		return grown;
+	}
+}
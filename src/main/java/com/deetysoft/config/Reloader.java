@@ -0,0 +1,209 @@
+package com.deetysoft.config;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
+
+/**
+ * Watches the property files of a {@link ConfigProperties} and reloads
+ * those that change.
+ * Files in the file system are watched with a {@link WatchService}.
+ * Other CLASSPATH resources are polled for a changed modification time or
+ * checksum.
+ * Changes are collected until none arrive for the debounce interval, so a
+ * burst of writes causes a single reload.
+ */
+final class Reloader implements Runnable
+{
+	private static final Logger	log	= Logger.getLogger (Reloader.class);
+
+	private final ConfigProperties	config;
+
+	private final long	debounceMillis;
+	private final long	pollMillis;
+
+	private final WatchService	watchService;
+
+	// The watched files by path.
+	private final Map<Path, List<PropertyFile>>	watched	=
+		new HashMap<Path, List<PropertyFile>> ();
+
+	// The files that are polled.
+	private final List<PropertyFile>	polled	= new ArrayList<PropertyFile> ();
+
+	private final Thread	thread;
+
+	private volatile boolean	running	= true;
+
+	/**
+	 * Construct, registering the directories of the given files.
+	 *
+	 * @param	config			the ConfigProperties to reload
+	 * @param	files			the files to watch
+	 * @param	debounceMillis	the quiet time before reloading
+	 * @param	pollMillis		the interval for polling files
+	 * @exception	IOException	creating the watch service
+	 */
+	Reloader (ConfigProperties config, List<PropertyFile> files,
+		long debounceMillis, long pollMillis) throws IOException
+	{
+		this.config = config;
+		this.debounceMillis = debounceMillis;
+		this.pollMillis = pollMillis;
+
+		watchService = FileSystems.getDefault ().newWatchService ();
+
+		Set<Path> directories = new HashSet<Path> ();
+
+		for (PropertyFile file : files)
+		{
+			Path path = file.getPath ();
+			Path directory = path == null ? null : path.getParent ();
+
+			if (directory == null)
+			{
+				polled.add (file);
+				continue;
+			}
+			if (directories.add (directory))
+			{
+				directory.register (watchService,
+					StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY,
+					StandardWatchEventKinds.ENTRY_DELETE);
+			}
+			List<PropertyFile> list = watched.get (path);
+			if (list == null)
+			{
+				list = new ArrayList<PropertyFile> (1);
+				watched.put (path, list);
+			}
+			list.add (file);
+		}
+
+		thread = new Thread (this, "ConfigProperties-reloader");
+		thread.setDaemon (true);
+		thread.start ();
+	}
+
+	/**
+	 * Stop watching.
+	 */
+	void stop ()
+	{
+		running = false;
+		thread.interrupt ();
+		try
+		{
+			watchService.close ();
+		}
+		catch (IOException e)
+		{
+			log.debug ("Exception closing watch service :\n" + e);
+		}
+	}
+
+	public void run ()
+	{
+		Set<PropertyFile> dirty = new LinkedHashSet<PropertyFile> ();
+		long lastChange = 0;
+		long nextPoll = System.currentTimeMillis () + pollMillis;
+
+		while (running)
+		{
+			long now = System.currentTimeMillis ();
+			long timeout = dirty.isEmpty () ? nextPoll-now
+				: Math.min (nextPoll, lastChange+debounceMillis)-now;
+
+			WatchKey key;
+			try
+			{
+				key = watchService.poll (Math.max (1, timeout), TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException e)
+			{
+				break;
+			}
+			catch (ClosedWatchServiceException e)
+			{
+				break;
+			}
+
+			now = System.currentTimeMillis ();
+
+			if (key != null)
+			{
+				Path directory = (Path) key.watchable ();
+				boolean matched = false;
+
+				for (WatchEvent<?> event : key.pollEvents ())
+				{
+					if (event.kind () == StandardWatchEventKinds.OVERFLOW)
+					{
+						for (List<PropertyFile> list : watched.values ())
+						{
+							dirty.addAll (list);
+						}
+						matched = true;
+					}
+					else
+					{
+						List<PropertyFile> list = watched.get
+							(directory.resolve ((Path) event.context ()));
+						if (list != null)
+						{
+							dirty.addAll (list);
+							matched = true;
+						}
+					}
+				}
+				key.reset ();
+				if (matched)
+				{
+					lastChange = now;
+				}
+			}
+
+			if (now >= nextPoll)
+			{
+				for (PropertyFile file : polled)
+				{
+					if (file.isModified ())
+					{
+						dirty.add (file);
+						lastChange = now;
+					}
+				}
+				nextPoll = now + pollMillis;
+			}
+
+			if (!dirty.isEmpty () && now-lastChange >= debounceMillis)
+			{
+				try
+				{
+					config.reload (dirty);
+				}
+				catch (RuntimeException e)
+				{
+					log.error ("Exception reloading properties :\n" + e);
+				}
+				dirty.clear ();
+			}
+		}
+		log.debug ("Reloader stopped.");
+	}
+}
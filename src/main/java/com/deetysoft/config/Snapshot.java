@@ -0,0 +1,596 @@
+package com.deetysoft.config;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * An immutable set of merged properties with its caches.
+ * A {@link ConfigProperties} publishes its properties as a snapshot through a
+ * single volatile reference.
+ * Changes build a new snapshot off to the side, so a reader never locks and
+ * never sees a half-merged state.
+ * The caches belong to the snapshot and are dropped with it.
+ */
+final class Snapshot implements Template.Resolver
+{
+	/**
+	 * The snapshot with no properties.
+	 */
+	static final Snapshot	EMPTY	= new Snapshot (CompactMap.EMPTY,
+		 Collections.<String, Template>emptyMap (), DependencyGraph.EMPTY);
+
+	// The merged properties, a CompactMap.
+	final Map<String, String>	properties;
+
+	// The compiled values having substitutions, by property name.
+	final Map<String, Template>	templates;
+
+	// The references between the templates.
+	final DependencyGraph	graph;
+
+	// The expanded values, cached by property name.
+	final ConcurrentHashMap<String, String>	expanded	=
+		new ConcurrentHashMap<String, String> ();
+
+	// The argument formats, cached by property name.
+	final ConcurrentHashMap<String, ArgumentFormat>	formats	=
+		new ConcurrentHashMap<String, ArgumentFormat> ();
+
+	// The parsed values, cached by property name, one for each type the
+	// property has been read as.
+	final ConcurrentHashMap<String, TypedValue[]>	typed	=
+		new ConcurrentHashMap<String, TypedValue[]> ();
+
+	// The expanded values read from a file, or null.
+	final CompiledSnapshot	compiled;
+
+	// The sorted names, built when first needed.
+	private volatile KeyIndex	index;
+
+	// Times the expansions when metrics are enabled, otherwise null.
+	volatile ConfigMetrics	metrics;
+
+	// The 'env.' values to expand with, the copy current when published.
+	volatile ConfigEnvironment.Copy	env	= ConfigEnvironment.current ();
+
+	// The references between all properties of a snapshot read from a
+	// file, built when first needed.
+	private volatile DependencyGraph	fullGraph;
+
+	private Snapshot (Map<String, String> properties,
+		Map<String, Template> templates, DependencyGraph graph)
+	{
+		this (properties, templates, graph, null);
+	}
+
+	private Snapshot (Map<String, String> properties,
+		Map<String, Template> templates, DependencyGraph graph,
+		CompiledSnapshot compiled)
+	{
+		this.properties = properties;
+		this.templates = templates;
+		this.graph = graph;
+		this.compiled = compiled;
+	}
+
+	private Snapshot (Map<String, String> properties,
+		Map<String, Template> templates)
+	{
+		this (properties, templates, new DependencyGraph (templates));
+	}
+
+	/**
+	 * Create a snapshot of the properties in a compiled snapshot file.
+	 * Values are read from the file when requested.
+	 * Only the values not expanded in the file are compiled, so the
+	 * snapshot is not to be merged or replaced.
+	 *
+	 * @param	compiled	the file
+	 * @return				the snapshot
+	 */
+	static Snapshot of (CompiledSnapshot compiled)
+	{
+		HashMap<String, Template> t = new HashMap<String, Template> ();
+
+		for (String name : compiled.getUnexpandedNames ())
+		{
+			Template template = Template.compile (name,
+				compiled.properties.get (name));
+
+			if (template != null)
+			{
+				t.put (name, template);
+			}
+		}
+		return new Snapshot (compiled.properties, Collections.unmodifiableMap (t),
+			new DependencyGraph (t), compiled);
+	}
+
+	/**
+	 * Create a snapshot with the given properties merged over these.
+	 * Only the merged values are compiled.
+	 *
+	 * @param	additions	the properties to merge
+	 * @return				the new snapshot
+	 */
+	Snapshot merge (Map<String, String> additions)
+	{
+		HashMap<String, String> p = new HashMap<String, String> (properties);
+		HashMap<String, Template> t = new HashMap<String, Template> (templates);
+
+		for (Map.Entry<String, String> entry : additions.entrySet ())
+		{
+			String name = entry.getKey ();
+			String value = entry.getValue ();
+
+			p.put (name, value);
+
+			Template template = Template.compile (name, value);
+
+			if (template == null)
+			{
+				t.remove (name);
+			}
+			else
+			{
+				t.put (name, template);
+			}
+		}
+		Snapshot next = new Snapshot (CompactMap.of (p), Collections.unmodifiableMap (t));
+
+		if (index != null)
+		{
+			next.index = index.with (additions.keySet ());
+		}
+		return next;
+	}
+
+	/**
+	 * Create a snapshot with the given properties in place of these.
+	 * Values that are unchanged keep their compiled templates.
+	 *
+	 * @param	replacements	the properties
+	 * @return					the new snapshot
+	 */
+	Snapshot replace (Map<String, String> replacements)
+	{
+		HashMap<String, Template> t = new HashMap<String, Template> ();
+
+		for (Map.Entry<String, String> entry : replacements.entrySet ())
+		{
+			String name = entry.getKey ();
+			String value = entry.getValue ();
+
+			Template template = templates.get (name);
+
+			if (template == null || !template.value.equals (value))
+			{
+				template = Template.compile (name, value);
+			}
+			if (template != null)
+			{
+				t.put (name, template);
+			}
+		}
+		Snapshot next = new Snapshot (CompactMap.of (replacements),
+			Collections.unmodifiableMap (t));
+
+		// Keep the index if the names are the same.
+		if (index != null && replacements.size () == properties.size ())
+		{
+			next.index = index;
+			for (String name : replacements.keySet ())
+			{
+				if (!properties.containsKey (name))
+				{
+					next.index = null;
+					break;
+				}
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * Create a snapshot with the same properties and empty caches.
+	 *
+	 * @return	the new snapshot
+	 */
+	Snapshot refresh ()
+	{
+		Snapshot next = new Snapshot (properties, templates, graph, compiled);
+		next.index = index;
+		return next;
+	}
+
+	/**
+	 * Get the sorted property names.
+	 * The index is built on first use, or carried over from the snapshot
+	 * this one was made from.
+	 *
+	 * @return	the index
+	 */
+	KeyIndex getIndex ()
+	{
+		KeyIndex i = index;
+
+		if (i == null)
+		{
+			i = KeyIndex.of (properties.keySet ());
+			index = i;
+		}
+		return i;
+	}
+
+	/**
+	 * Get the graph of the references between all properties.
+	 * A snapshot read from a file has compiled only the values not
+	 * expanded in the file, so the others are compiled on first use.
+	 *
+	 * @return	the graph
+	 */
+	DependencyGraph getFullGraph ()
+	{
+		if (compiled == null)
+		{
+			return graph;
+		}
+		DependencyGraph g = fullGraph;
+
+		if (g == null)
+		{
+			HashMap<String, Template> t = new HashMap<String, Template> ();
+
+			for (Map.Entry<String, String> entry : properties.entrySet ())
+			{
+				Template template = Template.compile (entry.getKey (),
+					entry.getValue ());
+
+				if (template != null)
+				{
+					t.put (entry.getKey (), template);
+				}
+			}
+			g = new DependencyGraph (t);
+			fullGraph = g;
+		}
+		return g;
+	}
+
+	/**
+	 * Get the names of properties whose expanded values may differ from
+	 * those in a previous snapshot.
+	 * These are the properties whose values differ, those with 'env.'
+	 * references if the environment changed, and all their dependents.
+	 *
+	 * @param	previous	the previous snapshot
+	 * @param	envChanged	true if the {@link ConfigEnvironment} changed
+	 * @return				the property names
+	 */
+	Set<String> getChangedNames (Snapshot previous, boolean envChanged)
+	{
+		Set<String> changed = new HashSet<String> ();
+
+		if (envChanged)
+		{
+			changed.addAll (graph.envNames);
+			changed.addAll (previous.graph.envNames);
+		}
+
+		if (previous.properties != properties)
+		{
+			for (Map.Entry<String, String> entry : properties.entrySet ())
+			{
+				if (!entry.getValue ().equals (previous.properties.get (entry.getKey ())))
+				{
+					changed.add (entry.getKey ());
+				}
+			}
+			for (String name : previous.properties.keySet ())
+			{
+				if (!properties.containsKey (name))
+				{
+					changed.add (name);
+				}
+			}
+		}
+
+		Set<String> result = graph.getDependents (changed);
+		result.addAll (previous.graph.getDependents (changed));
+		return result;
+	}
+
+	/**
+	 * Expand every property into the expansion cache, in parallel.
+	 * After this, {@link #get(String) get} is a single lookup.
+	 *
+	 * @param	pool	the pool to expand in
+	 * @return			the errors by property name
+	 */
+	SortedMap<String, Exception> expandAll (ForkJoinPool pool)
+	{
+		String[] names = properties.keySet ().toArray (new String [properties.size ()]);
+		ConcurrentSkipListMap<String, Exception> errors =
+			new ConcurrentSkipListMap<String, Exception> ();
+
+		pool.invoke (new Expansion (names, 0, names.length, errors));
+
+		return errors;
+	}
+
+	/**
+	 * Expand a range of properties, splitting large ranges.
+	 */
+	@SuppressWarnings("serial")
+	private final class Expansion extends RecursiveAction
+	{
+		// The most properties expanded without splitting.
+		private static final int	THRESHOLD	= 1024;
+
+		private final String[]	names;
+		private final int		from;
+		private final int		to;
+		private final Map<String, Exception>	errors;
+
+		Expansion (String[] names, int from, int to, Map<String, Exception> errors)
+		{
+			this.names = names;
+			this.from = from;
+			this.to = to;
+			this.errors = errors;
+		}
+
+		protected void compute ()
+		{
+			if (to-from > THRESHOLD)
+			{
+				int middle = (from+to) >>> 1;
+				invokeAll (new Expansion (names, from, middle, errors),
+					new Expansion (names, middle, to, errors));
+				return;
+			}
+			for (int i = from; i < to; i++)
+			{
+				try
+				{
+					Snapshot.this.get (names [i]);
+				}
+				catch (MissingPropertyException e)
+				{
+					errors.put (names [i], e);
+				}
+				catch (StringFormatException e)
+				{
+					errors.put (names [i], e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * See {@link ConfigProperties#get(String)}.
+	 */
+	String get (String name)
+		throws MissingPropertyException, StringFormatException
+	{
+		String value = expanded.get (name);
+
+		if (value != null)
+		{
+			return value;
+		}
+
+		if (compiled != null)
+		{
+			value = compiled.getExpanded (name);
+
+			if (value != null)
+			{
+				expanded.put (name, value);
+				return value;
+			}
+		}
+
+		value = getUnexpanded (name);
+
+		Template template = templates.get (name);
+
+		// A value with no substitutions is its own expansion.
+		// It is not cached, reading it from the map does not allocate.
+		if (template == null)
+		{
+			return value;
+		}
+
+		checkCycle (name);
+
+		ConfigMetrics m = metrics;
+		long start = m == null ? 0 : System.nanoTime ();
+
+		value = template.expand (this);
+
+		if (m != null)
+		{
+			m.expanded (System.nanoTime ()-start);
+		}
+
+		expanded.put (name, value);
+
+		return value;
+	}
+
+	/**
+	 * See {@link ConfigProperties#appendTo(String, Appendable)}.
+	 * A value not already expanded is expanded into out and not cached.
+	 */
+	public void appendTo (String name, Appendable out)
+		throws MissingPropertyException, StringFormatException, IOException
+	{
+		String value = expanded.get (name);
+
+		if (value == null)
+		{
+			Template template = templates.get (name);
+
+			// A literal, or a value expanded in a compiled snapshot, is
+			// appended as stored.
+			if (template == null)
+			{
+				value = get (name);
+			}
+			else
+			{
+				checkCycle (name);
+
+				ConfigMetrics m = metrics;
+				long start = m == null ? 0 : System.nanoTime ();
+
+				template.appendTo (this, out);
+
+				if (m != null)
+				{
+					m.expanded (System.nanoTime ()-start);
+				}
+				return;
+			}
+		}
+		out.append (value);
+	}
+
+	// Throw if a property is in a substitution cycle.
+	private void checkCycle (String name)
+		throws StringFormatException
+	{
+		String cycle = graph.cycles.get (name);
+
+		if (cycle != null)
+		{
+			throw new StringFormatException
+				("The value for property '"+name+"' has a substitution cycle :\n'"+
+				 cycle+"'.");
+		}
+	}
+
+	/**
+	 * See {@link ConfigProperties#get(String, String[])}.
+	 */
+	String get (String name, String[] args)
+		throws MissingPropertyException, StringFormatException
+	{
+		return getFormat (name).format (args);
+	}
+
+	/**
+	 * Get the expanded value compiled for run-time args.
+	 *
+	 * @param	name	the property name
+	 * @return			the format
+	 * @exception		MissingPropertyException
+	 *					if property or any nested property not found
+	 * @exception		StringFormatException
+	 *					if property value has unmatched substitution
+	 *					delimiters
+	 */
+	ArgumentFormat getFormat (String name)
+		throws MissingPropertyException, StringFormatException
+	{
+		ArgumentFormat format = formats.get (name);
+
+		if (format == null)
+		{
+			format = ArgumentFormat.compile (get (name));
+			formats.put (name, format);
+		}
+		return format;
+	}
+
+	/**
+	 * Get the expanded value parsed to a type.
+	 * See {@link TypedValue#parse TypedValue.parse}.
+	 *
+	 * @param	name	the property name
+	 * @param	type	the type
+	 * @return			the parsed value
+	 * @exception		MissingPropertyException
+	 *					if property or any nested property not found
+	 * @exception		StringFormatException
+	 *					if the value can't be expanded or parsed
+	 */
+	TypedValue getTyped (String name, Class<?> type)
+		throws MissingPropertyException, StringFormatException
+	{
+		TypedValue[] values = typed.get (name);
+
+		if (values != null)
+		{
+			for (TypedValue value : values)
+			{
+				if (value.type == type)
+				{
+					return value;
+				}
+			}
+		}
+
+		// Add the type to those cached.
+		// Concurrent reads as another type may drop one of the types, to
+		// be parsed again, but never get a wrong value.
+		TypedValue value = TypedValue.parse (name, get (name), type);
+		if (values == null)
+		{
+			values = new TypedValue [] {value};
+		}
+		else
+		{
+			values = Arrays.copyOf (values, values.length+1);
+			values [values.length-1] = value;
+		}
+		typed.put (name, values);
+		return value;
+	}
+
+	/**
+	 * See {@link ConfigProperties#getUnexpanded(String)}.
+	 */
+	String getUnexpanded (String name)
+		throws MissingPropertyException
+	{
+		String value = properties.get (name);
+
+		if (value == null)
+		{
+			throw new MissingPropertyException
+				("Property '"+name+"' not found in property map.");
+		}
+		return value;
+	}
+
+	public String resolve (String name)
+		throws MissingPropertyException, StringFormatException
+	{
+		return get (name);
+	}
+
+	public String resolveEnv (String name)
+		throws MissingPropertyException
+	{
+		String value = env.get (name);
+
+		if (value == null)
+		{
+			throw new MissingPropertyException
+				("Property '"+name+"' not found in System properties or the environment.");
+		}
+		return value;
+	}
+}
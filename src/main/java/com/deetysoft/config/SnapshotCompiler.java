@@ -0,0 +1,80 @@
+package com.deetysoft.config;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compiles the merged properties of a {@link ConfigProperties} into a
+ * binary snapshot file, for deployments whose properties do not change.
+ * {@link ConfigProperties#loadSnapshot ConfigProperties.loadSnapshot}
+ * reads the file at startup in place of parsing and expanding the
+ * property files.
+ * <p>
+ * Run as:
+ * <pre>
+ * java com.deetysoft.config.SnapshotCompiler snapshot-file [property-file ...]
+ * </pre>
+ * With no property files, they are found as by the default
+ * {@link ConfigProperties#ConfigProperties() ConfigProperties constructor}.
+ */
+public final class SnapshotCompiler
+{
+	private SnapshotCompiler ()
+	{
+	}
+
+	/**
+	 * Compile a snapshot file.
+	 * The ConfigProperties is {@link ConfigProperties#freeze() frozen}
+	 * first, so every property is expanded and checked.
+	 *
+	 * @param		configProperties	the properties
+	 * @param		fileName			the snapshot file name
+	 * @exception	IOException			writing the file, or if a property
+	 *									file has been added since read
+	 * @exception	InvalidPropertiesException
+	 *									if any property can't be expanded
+	 */
+	public static void compile (ConfigProperties configProperties, String fileName)
+		throws IOException, InvalidPropertiesException
+	{
+		if (!configProperties.isFrozen ())
+		{
+			configProperties.freeze ();
+		}
+		CompiledSnapshot.write (configProperties.snapshot,
+			configProperties.getFileNames (), configProperties.getFiles (),
+			configProperties.getClass ().getClassLoader (), fileName);
+	}
+
+	/**
+	 * Compile a snapshot file from the command line.
+	 *
+	 * @param	args	the snapshot file name and the property file names
+	 */
+	public static void main (String[] args)
+	{
+		if (args.length == 0)
+		{
+			System.err.println ("Usage: SnapshotCompiler snapshot-file [property-file ...]");
+			System.exit (2);
+		}
+		try
+		{
+			ConfigProperties configProperties = args.length == 1 ?
+				new ConfigProperties () :
+				new ConfigProperties (Arrays.copyOfRange (args, 1, args.length));
+			compile (configProperties, args [0]);
+		}
+		catch (IOException e)
+		{
+			System.err.println (e.getMessage ());
+			System.exit (1);
+		}
+		catch (InvalidPropertiesException e)
+		{
+			System.err.println (e.getMessage ());
+			System.exit (1);
+		}
+	}
+}
@@ -0,0 +1,257 @@
+package com.deetysoft.config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A property value compiled into literal segments and references.
+ * A value is compiled once when it is loaded and expanded with a single
+ * pre-sized builder, rather than scanned for substitution tokens on every
+ * request.
+ * <p>
+ * A reference is either a property name or, when the name begins with
+ * {@link ConfigProperties#ENV_PREFIX ENV_PREFIX}, the name of a system
+ * property.
+ * A substitution token preceded by '\\' is not a delimiter.
+ */
+final class Template
+{
+	/**
+	 * Resolves the references of a template.
+	 */
+	interface Resolver
+	{
+		/**
+		 * Get the expanded value of a property.
+		 *
+		 * @param	name	the property name
+		 * @return			the value
+		 * @exception		MissingPropertyException
+		 *					if property or any nested property not found
+		 * @exception		StringFormatException
+		 *					if property value has unmatched substitution
+		 *					delimiters
+		 */
+		String resolve (String name)
+			throws MissingPropertyException, StringFormatException;
+
+		/**
+		 * Append the expanded value of a property.
+		 *
+		 * @param	name	the property name
+		 * @param	out		where to append the value
+		 * @exception		MissingPropertyException
+		 *					if property or any nested property not found
+		 * @exception		StringFormatException
+		 *					if property value has unmatched substitution
+		 *					delimiters
+		 * @exception		IOException
+		 *					appending to out
+		 */
+		void appendTo (String name, Appendable out)
+			throws MissingPropertyException, StringFormatException, IOException;
+
+		/**
+		 * Get the value of an 'env.' reference.
+		 *
+		 * @param	name	the name with the 'env.' prefix removed
+		 * @return			the value
+		 * @exception		MissingPropertyException	if not found
+		 */
+		String resolveEnv (String name)
+			throws MissingPropertyException;
+	}
+
+	private static final String[]	NO_NAMES	= {};
+
+	// The property name and unexpanded value.
+	final String	name;
+	final String	value;
+
+	// The literal segments, one more than the references.
+	final String[]	literals;
+
+	// The referenced names, env names have the prefix removed.
+	final String[]	references;
+	final boolean[]	env;
+
+	// The total length of the literal segments.
+	final int		literalLength;
+
+	// The format error or null.
+	final String	error;
+
+	private Template (String name, String value, String[] literals,
+		String[] references, boolean[] env, String error)
+	{
+		this.name = name;
+		this.value = value;
+		this.literals = literals;
+		this.references = references;
+		this.env = env;
+		this.error = error;
+
+		int length = 0;
+		for (int i = 0; i < literals.length; i++)
+		{
+			length += literals [i].length ();
+		}
+		literalLength = length;
+	}
+
+	/**
+	 * Compile a property value.
+	 * A value with no substitution tokens has no template.
+	 * A value with unmatched tokens compiles to a template that fails on
+	 * {@link #expand expand}; see {@link #error}.
+	 *
+	 * @param	name	the property name
+	 * @param	value	the unexpanded value
+	 * @return			the template or null if the value is a literal
+	 */
+	static Template compile (String name, String value)
+	{
+		char token = ConfigProperties.SUBSTITUTION_TOKEN;
+
+		int index = nextToken (value, -1);
+
+		if (index == -1)
+		{
+			return null;
+		}
+
+		List<String> literals = new ArrayList<String> ();
+		List<String> references = new ArrayList<String> ();
+
+		int start = 0;
+
+		while (index != -1)
+		{
+			int end = nextToken (value, index);
+
+			if (end == -1)
+			{
+				String error = "The value for property '"+name+
+					"' has unmatched '"+token+"' :\n'"+value+"'.";
+				return new Template (name, value, new String[] {value},
+					NO_NAMES, new boolean [0], error);
+			}
+			literals.add (value.substring (start, index));
+			references.add (value.substring (index+1, end));
+			start = end+1;
+			index = nextToken (value, end);
+		}
+		literals.add (value.substring (start));
+
+		String[] names = references.toArray (new String [references.size ()]);
+		boolean[] env = new boolean [names.length];
+
+		for (int i = 0; i < names.length; i++)
+		{
+			if (names [i].startsWith (ConfigProperties.ENV_PREFIX))
+			{
+				names [i] = names [i].substring
+					(ConfigProperties.ENV_PREFIX.length ());
+				env [i] = true;
+			}
+		}
+
+		return new Template (name, value,
+			literals.toArray (new String [literals.size ()]), names, env, null);
+	}
+
+	// Get the index of the next unescaped token after the given index.
+	private static int nextToken (String str, int index)
+	{
+		while ((index = str.indexOf
+			(ConfigProperties.SUBSTITUTION_TOKEN, index+1)) != -1)
+		{
+			if (index == 0 || str.charAt (index-1) != '\\')
+			{
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Expand the template.
+	 *
+	 * @param	resolver	resolves the references
+	 * @return				the expanded value
+	 * @exception		MissingPropertyException
+	 *					if any nested property not found
+	 * @exception		StringFormatException
+	 *					if the value or a nested value has unmatched
+	 *					substitution delimiters
+	 */
+	String expand (Resolver resolver)
+		throws MissingPropertyException, StringFormatException
+	{
+		if (error != null)
+		{
+			throw new StringFormatException (error);
+		}
+
+		String[] values = new String [references.length];
+		int length = literalLength;
+
+		for (int i = 0; i < references.length; i++)
+		{
+			values [i] = env [i] ? resolver.resolveEnv (references [i])
+				: resolver.resolve (references [i]);
+			length += values [i].length ();
+		}
+
+		StringBuilder builder = new StringBuilder (length);
+
+		for (int i = 0; i < values.length; i++)
+		{
+			builder.append (literals [i]).append (values [i]);
+		}
+		builder.append (literals [values.length]);
+
+		return builder.toString ();
+	}
+
+	/**
+	 * Expand the template into out, with no intermediate string.
+	 * References are appended through the resolver, so those not already
+	 * expanded are streamed too.
+	 * On an exception, part of the value may have been appended.
+	 *
+	 * @param	resolver	resolves the references
+	 * @param	out			where to append the value
+	 * @exception		MissingPropertyException
+	 *					if any nested property not found
+	 * @exception		StringFormatException
+	 *					if the value or a nested value has unmatched
+	 *					substitution delimiters
+	 * @exception		IOException
+	 *					appending to out
+	 */
+	void appendTo (Resolver resolver, Appendable out)
+		throws MissingPropertyException, StringFormatException, IOException
+	{
+		if (error != null)
+		{
+			throw new StringFormatException (error);
+		}
+
+		for (int i = 0; i < references.length; i++)
+		{
+			out.append (literals [i]);
+
+			if (env [i])
+			{
+				out.append (resolver.resolveEnv (references [i]));
+			}
+			else
+			{
+				resolver.appendTo (references [i], out);
+			}
+		}
+		out.append (literals [references.length]);
+	}
+}
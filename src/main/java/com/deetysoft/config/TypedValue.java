@@ -0,0 +1,280 @@
+package com.deetysoft.config;
+
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A property value parsed to a type.
+ * Numbers and booleans are held in primitive fields so that reading a
+ * cached value does not box.
+ * Booleans are held as 0 or 1 and ints as longs.
+ */
+final class TypedValue
+{
+	// The parsed type, a primitive class, String, Duration, List or an
+	// enum class.
+	final Class<?>	type;
+
+	final long		longValue;
+	final double	doubleValue;
+	final Object	objectValue;
+
+	private TypedValue (Class<?> type, long longValue, double doubleValue,
+		Object objectValue)
+	{
+		this.type = type;
+		this.longValue = longValue;
+		this.doubleValue = doubleValue;
+		this.objectValue = objectValue;
+	}
+
+	/**
+	 * Get the type to parse for a value type.
+	 * The number and boolean wrapper classes map to their primitive classes.
+	 *
+	 * @param	type	the value type
+	 * @return			the type to parse
+	 * @exception		IllegalArgumentException
+	 *					if the type is not supported
+	 */
+	static Class<?> parseType (Class<?> type)
+	{
+		if (type == Integer.class || type == int.class)
+		{
+			return int.class;
+		}
+		if (type == Long.class || type == long.class)
+		{
+			return long.class;
+		}
+		if (type == Boolean.class || type == boolean.class)
+		{
+			return boolean.class;
+		}
+		if (type == Double.class || type == double.class)
+		{
+			return double.class;
+		}
+		if (type == String.class || type == Duration.class
+			|| type == List.class || type.isEnum ())
+		{
+			return type;
+		}
+		throw new IllegalArgumentException
+			("Unsupported property type "+type.getName ()+".");
+	}
+
+	/**
+	 * Get this value with its primitive, if any, boxed in objectValue.
+	 *
+	 * @return	the value
+	 */
+	TypedValue boxed ()
+	{
+		if (objectValue != null)
+		{
+			return this;
+		}
+		Object box;
+
+		if (type == int.class)
+		{
+			box = Integer.valueOf ((int) longValue);
+		}
+		else if (type == long.class)
+		{
+			box = Long.valueOf (longValue);
+		}
+		else if (type == boolean.class)
+		{
+			box = Boolean.valueOf (longValue != 0);
+		}
+		else
+		{
+			box = Double.valueOf (doubleValue);
+		}
+		return new TypedValue (type, longValue, doubleValue, box);
+	}
+
+	/**
+	 * Parse a value.
+	 * <p>
+	 * int, long and double values are parsed by Integer.parseInt,
+	 * Long.parseLong and Double.parseDouble.
+	 * A boolean is 'true' or 'false', ignoring case.
+	 * A String is the value itself.
+	 * A {@link Duration} is in ISO-8601 form, such as 'PT30S', or a whole
+	 * number followed by one of the units 'ns', 'us', 'ms', 's', 'm', 'h'
+	 * or 'd'; a number with no unit is milliseconds.
+	 * A {@link List} is a ',' separated list of strings, which are
+	 * trimmed, and empty strings are left out.
+	 * An enum is the name of a constant, ignoring case when there is no
+	 * exact match.
+	 * Surrounding white space is ignored.
+	 *
+	 * @param	name	the property name
+	 * @param	value	the expanded value
+	 * @param	type	the type to parse
+	 * @return			the parsed value
+	 * @exception		StringFormatException
+	 *					if the value is not valid for the type
+	 */
+	static TypedValue parse (String name, String value, Class<?> type)
+		throws StringFormatException
+	{
+		if (type == String.class)
+		{
+			return new TypedValue (type, 0, 0, value);
+		}
+
+		String trimmed = value.trim ();
+
+		try
+		{
+			if (type == int.class)
+			{
+				return new TypedValue (type, Integer.parseInt (trimmed), 0, null);
+			}
+			if (type == long.class)
+			{
+				return new TypedValue (type, Long.parseLong (trimmed), 0, null);
+			}
+			if (type == double.class)
+			{
+				return new TypedValue (type, 0, Double.parseDouble (trimmed), null);
+			}
+			if (type == boolean.class)
+			{
+				if (trimmed.equalsIgnoreCase ("true"))
+				{
+					return new TypedValue (type, 1, 0, null);
+				}
+				if (trimmed.equalsIgnoreCase ("false"))
+				{
+					return new TypedValue (type, 0, 0, null);
+				}
+			}
+			else if (type == Duration.class)
+			{
+				return new TypedValue (type, 0, 0, parseDuration (trimmed));
+			}
+			else if (type == List.class)
+			{
+				return new TypedValue (type, 0, 0, parseList (value));
+			}
+			else if (type.isEnum ())
+			{
+				Object constant = parseEnum (trimmed, type);
+				if (constant != null)
+				{
+					return new TypedValue (type, 0, 0, constant);
+				}
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			// Reported below.
+		}
+		catch (DateTimeParseException e)
+		{
+			// Reported below.
+		}
+		catch (ArithmeticException e)
+		{
+			// Reported below.
+		}
+
+		throw new StringFormatException
+			("The value for property '"+name+"' is not a valid "+
+			 type.getSimpleName ()+" :\n'"+value+"'.");
+	}
+
+	private static Duration parseDuration (String value)
+	{
+		if (value.length () > 0 && (value.charAt (0) == 'P'
+			|| value.charAt (0) == 'p' || value.startsWith ("-P")
+			|| value.startsWith ("-p")))
+		{
+			return Duration.parse (value);
+		}
+
+		int end = value.length ();
+		while (end > 0 && Character.isLetter (value.charAt (end-1)))
+		{
+			end--;
+		}
+
+		long amount = Long.parseLong (value.substring (0, end).trim ());
+		String unit = value.substring (end).toLowerCase (Locale.ROOT);
+
+		if (unit.isEmpty () || unit.equals ("ms"))
+		{
+			return Duration.ofMillis (amount);
+		}
+		if (unit.equals ("ns"))
+		{
+			return Duration.ofNanos (amount);
+		}
+		if (unit.equals ("us"))
+		{
+			return Duration.ofNanos (Math.multiplyExact (amount, 1000L));
+		}
+		if (unit.equals ("s"))
+		{
+			return Duration.ofSeconds (amount);
+		}
+		if (unit.equals ("m"))
+		{
+			return Duration.ofMinutes (amount);
+		}
+		if (unit.equals ("h"))
+		{
+			return Duration.ofHours (amount);
+		}
+		if (unit.equals ("d"))
+		{
+			return Duration.ofDays (amount);
+		}
+		throw new NumberFormatException (unit);
+	}
+
+	private static List<String> parseList (String value)
+	{
+		List<String> list = new ArrayList<String> ();
+
+		for (String element : value.split (","))
+		{
+			element = element.trim ();
+			if (!element.isEmpty ())
+			{
+				list.add (element);
+			}
+		}
+		return Collections.unmodifiableList (list);
+	}
+
+	private static Object parseEnum (String value, Class<?> type)
+	{
+		Object[] constants = type.getEnumConstants ();
+
+		for (Object constant : constants)
+		{
+			if (((Enum<?>) constant).name ().equals (value))
+			{
+				return constant;
+			}
+		}
+		for (Object constant : constants)
+		{
+			if (((Enum<?>) constant).name ().equalsIgnoreCase (value))
+			{
+				return constant;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,71 @@
+package com.deetysoft.config;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Test the class {@link CompactMap}.
+ */
+public class CompactMapTest {
+
+	protected static Logger log = null;
+
+	static {
+		log = Logger.getLogger(CompactMapTest.class);
+	}
+
+	/**
+	 * Test that names sharing prefixes, and names with empty segments,
+	 * are stored and listed unchanged, and that other names are not found.
+	 * @throws Exception	on any error
+	 */
+	@Test
+	public static void testCompactNames () throws Exception {
+		log.debug("in testCompactNames");
+		Map<String, String> entries = new HashMap<String, String>();
+		String[] names = {"a", "a.b", "a.b.c", "a..b", ".x", "x.", "b.b", "", "."};
+		for (int i = 0; i < names.length; i++) {
+			entries.put(names[i], "v" + (i % 3));
+		}
+		CompactMap map = CompactMap.of(entries);
+		Assert.assertEquals(map.size(), names.length);
+		Assert.assertEquals(new TreeMap<String, String>(map), new TreeMap<String, String>(entries));
+		for (String name : names) {
+			Assert.assertTrue(map.containsKey(name), name);
+			Assert.assertEquals(map.get(name), entries.get(name), name);
+		}
+		for (String name : new String[] {"b", "a.b.", "c", "a.c", "x", "..", "a.b.c.d"}) {
+			Assert.assertFalse(map.containsKey(name), name);
+			Assert.assertNull(map.get(name), name);
+		}
+		Assert.assertNull(map.get(null));
+		Assert.assertNull(map.get(Integer.valueOf(1)));
+		Assert.assertEquals(CompactMap.EMPTY.size(), 0);
+		log.debug("leaving testCompactNames");
+	}
+
+	/**
+	 * Test that a map built from another keeps its value instances.
+	 * @throws Exception	on any error
+	 */
+	@Test
+	public static void testRebuild () throws Exception {
+		log.debug("in testRebuild");
+		Map<String, String> entries = new HashMap<String, String>();
+		entries.put("db.url", new String("u"));
+		entries.put("db.user", new String("u"));
+		CompactMap map = CompactMap.of(entries);
+		Assert.assertSame(map.get("db.url"), map.get("db.user"));
+
+		Map<String, String> merged = new HashMap<String, String>(map);
+		merged.put("host", "h");
+		CompactMap rebuilt = CompactMap.of(merged);
+		Assert.assertSame(rebuilt.get("db.url"), map.get("db.url"));
+		Assert.assertEquals(rebuilt.get("host"), "h");
+		log.debug("leaving testRebuild");
+	}
+}
@@ -0,0 +1,126 @@
+package com.deetysoft.config;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import org.apache.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test the class {@link ConfigAccessorProcessor}.
+ */
+public class ConfigAccessorProcessorTest {
+
+	protected static Logger log = null;
+
+	static {
+		log = Logger.getLogger(ConfigAccessorProcessorTest.class);
+	}
+
+	@BeforeMethod
+	public static void beforeMethod () {
+
+		log.debug("beforeMethod");
+		ConfigPropertiesTest.clearEnv();
+		log.debug("leaving beforeMethod");
+	}
+
+	/**
+	 * Test accessors generated by {@link ConfigAccessorProcessor}, and
+	 * the build failing on a misspelled or mistyped property.
+	 * @throws Exception	on any error
+	 */
+	@Test
+	public static void testAccessorProcessor () throws Exception {
+		log.debug("in testAccessorProcessor");
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null) {
+			log.debug("No system compiler, not testing.");
+			return;
+		}
+		File dir = File.createTempFile("accessor", "");
+		dir.delete();
+		File pkg = new File(dir, "accessortest");
+		pkg.mkdirs();
+		File props = new File(dir, "accessor.properties");
+		File source = new File(pkg, "AppConfig.java");
+		try {
+			TempProperties.write(props, "db.host=h\ndb.port=5432\ndb.url=%db.host%:%db.port%\n"+
+				"db.hosts=a, b\nmode=fast\n");
+			TempProperties.write(source, "package accessortest;\n"+
+				"import com.deetysoft.config.*;\n"+
+				"@ConfigAccessor(files = {\"accessor.properties\"}, prefix = \"db.\",\n"+
+				"  filesClass = true)\n"+
+				"public interface AppConfig {\n"+
+				"  enum Mode {FAST, SLOW}\n"+
+				"  String host();\n"+
+				"  int port();\n"+
+				"  java.util.List<String> hosts();\n"+
+				"  String url() throws MissingPropertyException, StringFormatException;\n"+
+				"  @ConfigName(\"mode\") Mode mode();\n"+
+				"}\n");
+			Assert.assertTrue(compile(compiler, dir, source, null));
+
+			try (URLClassLoader loader = new URLClassLoader(new URL[] {dir.toURI().toURL()},
+					ConfigAccessorProcessorTest.class.getClassLoader())) {
+				Class<?> accessor = loader.loadClass("accessortest.AppConfigAccessor");
+				Class<?> config = loader.loadClass("accessortest.AppConfig");
+				Assert.assertEquals(Arrays.asList((String[]) accessor.getMethod("getFileNames").invoke(null)),
+					Arrays.asList("accessor.properties"));
+				// The files class is called without reflection.
+				Object files = loader.loadClass(ConfigProperties.FILES_CLASS).newInstance();
+				Assert.assertEquals(Arrays.asList((String[]) ((Callable<?>) files).call()),
+					Arrays.asList("accessor.properties"));
+				ConfigProperties c = new ConfigProperties (new String[] {props.getPath()});
+				Object o = accessor.getConstructor(ConfigProperties.class).newInstance(c);
+				Assert.assertEquals(config.getMethod("host").invoke(o), "h");
+				Assert.assertEquals(config.getMethod("port").invoke(o), 5432);
+				Assert.assertEquals(config.getMethod("hosts").invoke(o), Arrays.asList("a", "b"));
+				Assert.assertEquals(config.getMethod("url").invoke(o), "h:5432");
+				Assert.assertEquals(config.getMethod("mode").invoke(o).toString(), "FAST");
+			}
+
+			TempProperties.write(source, "package accessortest;\n"+
+				"import com.deetysoft.config.*;\n"+
+				"@ConfigAccessor(files = {\"accessor.properties\"}, prefix = \"db.\")\n"+
+				"public interface AppConfig {\n"+
+				"  int prot();\n"+
+				"  int host();\n"+
+				"}\n");
+			DiagnosticCollector<JavaFileObject> diagnostics =
+				new DiagnosticCollector<JavaFileObject>();
+			Assert.assertFalse(compile(compiler, dir, source, diagnostics));
+			String messages = diagnostics.getDiagnostics().toString();
+			Assert.assertTrue(messages.contains("'db.prot' not found"), messages);
+			Assert.assertTrue(messages.contains("'db.host'"), messages);
+		} finally {
+			TempProperties.delete(dir);
+		}
+		log.debug("leaving testAccessorProcessor");
+	}
+
+	// Compile a source with the accessor processor, into its root directory.
+	static boolean compile (JavaCompiler compiler, File dir, File source,
+			DiagnosticCollector<JavaFileObject> diagnostics) throws Exception {
+		try (StandardJavaFileManager fileManager =
+				compiler.getStandardFileManager(null, null, null)) {
+			JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager,
+				diagnostics, Arrays.asList("-d", dir.getPath(),
+					"-classpath", System.getProperty("java.class.path"),
+					"-A"+ConfigAccessorProcessor.PATH_OPTION+"="+dir.getPath()),
+				null, fileManager.getJavaFileObjects(source));
+			task.setProcessors(Collections.singletonList(new ConfigAccessorProcessor()));
+			return task.call();
+		}
+	}
+}
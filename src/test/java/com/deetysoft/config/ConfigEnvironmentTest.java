@@ -0,0 +1,129 @@
+package com.deetysoft.config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.apache.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test the class {@link ConfigEnvironment}.
+ */
+public class ConfigEnvironmentTest {
+
+	protected static Logger log = null;
+
+	static {
+		log = Logger.getLogger(ConfigEnvironmentTest.class);
+	}
+
+	@BeforeMethod
+	public static void beforeMethod () {
+
+		log.debug("beforeMethod");
+		ConfigPropertiesTest.clearEnv();
+		log.debug("leaving beforeMethod");
+	}
+
+	/**
+	 * Test 'env.' references to environment variables, the precedence
+	 * between system properties and environment variables, and refreshing
+	 * the copied values.
+	 * @throws Exception	on any error
+	 */
+	@Test
+	public static void testEnvironment () throws Exception {
+		log.debug("in testEnvironment");
+		String variable = "com.deetysoft.config.ENV_PRECEDENCE_TEST";
+		String late = "com.deetysoft.config.ENV_LATE_TEST";
+		try (TempProperties f = TempProperties.create("environment",
+				"var=%env."+variable+"%\ntest=%env.com.deetysoft.config.ENV_TEST%\n"+
+				"late=%env."+late+"%\n")) {
+			System.setProperty("com.deetysoft.config.ENV_TEST", "fred");
+			ConfigProperties c = f.read();
+			Assert.assertEquals(c.get("test"), "fred");
+
+			System.setProperty("com.deetysoft.config.ENV_TEST", "barney");
+			Assert.assertEquals(c.get("test"), "fred");
+			Assert.assertTrue(ConfigEnvironment.refresh());
+			Assert.assertFalse(ConfigEnvironment.refresh());
+			Assert.assertEquals(c.get("test"), "barney");
+
+			// A name not found is remembered until the next refresh.
+			try {
+				c.get("late");
+				Assert.fail("Missing property not reported.");
+			} catch (MissingPropertyException e) {
+				// Expected.
+			}
+			System.setProperty(late, "late");
+			try {
+				c.get("late");
+				Assert.fail("Missing property not reported.");
+			} catch (MissingPropertyException e) {
+				// Expected.
+			}
+			Assert.assertTrue(ConfigEnvironment.refresh());
+			Assert.assertEquals(c.get("late"), "late");
+
+			// With no environment variable, the system property is used
+			// whatever the precedence.
+			System.setProperty(variable, "system");
+			ConfigEnvironment.refresh();
+			Assert.assertEquals(c.get("var"), "system");
+			ConfigEnvironment.setPrecedence(ConfigEnvironment.Precedence.ENVIRONMENT);
+			Assert.assertEquals(c.get("var"), "system");
+
+			Map<String, String> environment = System.getenv();
+			if (!environment.isEmpty()) {
+				String name = environment.keySet().iterator().next();
+				f.write("env=%env."+name+"%\n");
+				Assert.assertEquals(f.read().get("env"), environment.get(name));
+			}
+		} finally {
+			ConfigEnvironment.setPrecedence(ConfigEnvironment.Precedence.SYSTEM_PROPERTIES);
+			System.clearProperty(variable);
+			System.clearProperty(late);
+		}
+		log.debug("leaving testEnvironment");
+	}
+
+	/**
+	 * Test that a change through an 'env.' reference is reported to
+	 * listeners for a value not read before the refresh, from the values
+	 * before it.
+	 * @throws Exception	on any error
+	 */
+	@Test
+	public static void testRefreshListeners () throws Exception {
+		log.debug("in testRefreshListeners");
+		String listened = "com.deetysoft.config.ENV_LISTEN_TEST";
+		System.setProperty(listened, "1");
+		try (TempProperties f = TempProperties.create("environment",
+				"a=x%env."+listened+"%\nb=y%env."+listened+"%\n")) {
+			ConfigEnvironment.refresh();
+			ConfigProperties c = f.read();
+			final List<String> changes = new ArrayList<String>();
+			ConfigChangeListener listener = new ConfigChangeListener() {
+				public void propertyChanged(String name, String oldValue, String newValue) {
+					changes.add(name + " " + oldValue + " " + newValue);
+				}
+			};
+			c.addListener("a", listener);
+			c.addListener("b", listener);
+			Assert.assertEquals(c.get("b"), "y1");
+			System.setProperty(listened, "2");
+			Assert.assertTrue(ConfigEnvironment.refresh());
+			Collections.sort(changes);
+			Assert.assertEquals(changes, Arrays.asList("a x1 x2", "b y1 y2"));
+			Assert.assertEquals(c.get("a"), "x2");
+		} finally {
+			System.clearProperty(listened);
+		}
+		log.debug("leaving testRefreshListeners");
+	}
+}
@@ -0,0 +1,133 @@
+package com.deetysoft.config;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Map;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test the class {@link ConfigMetrics}.
+ */
+public class ConfigMetricsTest {
+
+	protected static Logger log = null;
+
+	static {
+		log = Logger.getLogger(ConfigMetricsTest.class);
+	}
+
+	@BeforeMethod
+	public static void beforeMethod () {
+
+		log.debug("beforeMethod");
+		ConfigPropertiesTest.clearEnv();
+		log.debug("leaving beforeMethod");
+	}
+
+	/**
+	 * Test the metrics - read and missing counts, expansion and load
+	 * timings - and their JMX registration.
+	 * @throws Exception	on any error
+	 */
+	@Test
+	public static void testMetrics () throws Exception {
+		log.debug("in testMetrics");
+		try (TempProperties f = TempProperties.create("metrics", "a=1\nb=%a%2\nc=%missing%\n")) {
+			ConfigProperties c = f.read();
+			Assert.assertNull(c.getMetrics());
+			ConfigMetrics m = c.enableMetrics();
+			Assert.assertSame(c.enableMetrics(), m);
+
+			c.get("a");
+			c.get("b");
+			c.get("b");
+			Assert.assertEquals(c.getInt("a"), 1);
+			try {
+				c.get("c");
+				Assert.fail("Missing property not reported.");
+			} catch (MissingPropertyException e) {
+				// Expected.
+			}
+			Assert.assertEquals(m.getReadCounts().get("a"), Long.valueOf(2));
+			Assert.assertEquals(m.getReadCounts().get("b"), Long.valueOf(2));
+			Assert.assertEquals(m.getReadCount(), 5);
+			Assert.assertEquals(m.getTopReadCounts(1).size(), 1);
+			Assert.assertEquals(m.getMissingCounts().get("c"), Long.valueOf(1));
+			Assert.assertEquals(m.getExpansionCount(), 1);
+			long sum = 0;
+			for (long n : m.getExpansionHistogram()) {
+				sum += n;
+			}
+			Assert.assertEquals(sum, 1);
+			Assert.assertEquals(m.getExpansionHistogramBounds().length,
+				m.getExpansionHistogram().length-1);
+			Assert.assertEquals(m.getKeyCount(), 3);
+			Assert.assertTrue(m.getLastLoadTime() > 0);
+			Assert.assertTrue(m.getFileLoadMillis().containsKey(new File(f.getPath()).getAbsolutePath()));
+
+			ObjectName name = m.register("testMetrics");
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			Assert.assertEquals(server.getAttribute(name, "KeyCount"), 3);
+			Assert.assertEquals(server.getAttribute(name, "MissingCount"), 1L);
+
+			m.reset();
+			Assert.assertEquals(m.getReadCount(), 0);
+			c.disableMetrics();
+			Assert.assertFalse(server.isRegistered(name));
+			c.get("a");
+			Assert.assertEquals(m.getReadCount(), 0);
+		}
+		log.debug("leaving testMetrics");
+	}
+
+	/**
+	 * Test that reads through handles and getAll are counted, and that
+	 * names past {@link ConfigMetrics#MAX_NAMES} are counted together.
+	 * @throws Exception	on any error
+	 */
+	@Test
+	public static void testCounts () throws Exception {
+		log.debug("in testCounts");
+		try (TempProperties f = TempProperties.create("counts", "a=1\nb=%a%2\n")) {
+			ConfigProperties c = f.read();
+			ConfigKey<Integer> a = c.key("a", Integer.class);
+			ConfigKey<String> none = c.key("none", String.class);
+			ConfigMetrics m = c.enableMetrics();
+
+			Assert.assertEquals(a.getInt(), 1);
+			c.getAll(Arrays.asList("a", "b"));
+			try {
+				none.get();
+				Assert.fail("Missing property not reported.");
+			} catch (MissingPropertyException e) {
+				// Expected.
+			}
+			Assert.assertEquals(m.getReadCounts().get("a"), Long.valueOf(2));
+			Assert.assertEquals(m.getReadCounts().get("b"), Long.valueOf(1));
+			Assert.assertEquals(m.getMissingCounts().get("none"), Long.valueOf(1));
+
+			m.reset();
+			for (int i = 0; i < ConfigMetrics.MAX_NAMES+10; i++) {
+				try {
+					c.get("missing."+i);
+					Assert.fail("Missing property not reported.");
+				} catch (MissingPropertyException e) {
+					// Expected.
+				}
+			}
+			Map<String, Long> counts = m.getReadCounts();
+			Assert.assertEquals(counts.size(), ConfigMetrics.MAX_NAMES+1);
+			Assert.assertEquals(counts.get(ConfigMetrics.OTHER), Long.valueOf(10));
+			Assert.assertEquals(m.getMissingCounts().size(), ConfigMetrics.MAX_NAMES+1);
+			Assert.assertEquals(m.getReadCount(), ConfigMetrics.MAX_NAMES+10);
+			c.disableMetrics();
+		}
+		log.debug("leaving testCounts");
+	}
+}
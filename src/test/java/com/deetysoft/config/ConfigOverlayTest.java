@@ -0,0 +1,79 @@
+package com.deetysoft.config;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test the class {@link ConfigOverlay}.
+ */
+public class ConfigOverlayTest {
+
+	protected static Logger log = null;
+
+	static {
+		log = Logger.getLogger(ConfigOverlayTest.class);
+	}
+
+	@BeforeMethod
+	public static void beforeMethod () {
+
+		log.debug("beforeMethod");
+		ConfigPropertiesTest.clearEnv();
+		log.debug("leaving beforeMethod");
+	}
+
+	/**
+	 * Test overlays: lookups from the top layer down, expansion in the
+	 * overlay's view, and following changes to the base.
+	 * @throws Exception	on any error
+	 */
+	@Test
+	public static void testOverlays () throws Exception {
+		log.debug("in testOverlays");
+		try (TempProperties f = TempProperties.create("overlay",
+				"host=base\nport=80\nurl=http://%host%:%port%/\nname=plain\n"+
+				"greeting=Hello {0} from %host%\n")) {
+			ConfigProperties c = f.read();
+			Map<String, String> tenant = new HashMap<String, String>();
+			tenant.put("host", "tenant");
+			tenant.put("extra", "%url%x");
+			ConfigOverlay o = c.overlay(tenant);
+			Assert.assertEquals(o.get("url"), "http://tenant:80/");
+			Assert.assertEquals(o.get("extra"), "http://tenant:80/x");
+			Assert.assertEquals(o.get("name"), "plain");
+			Assert.assertEquals(o.get("greeting", new String[] {"Ann"}),
+				"Hello Ann from tenant");
+			Assert.assertEquals(o.getUnexpanded("url"), "http://%host%:%port%/");
+			Assert.assertEquals(c.get("url"), "http://base:80/");
+			try {
+				c.get("extra");
+				Assert.fail("Overlay property found in base.");
+			} catch (MissingPropertyException e) {
+				// Expected.
+			}
+
+			ConfigOverlay top = o.overlay(Collections.singletonMap("port", "8080"));
+			Assert.assertEquals(top.get("url"), "http://tenant:8080/");
+			Assert.assertEquals(o.get("url"), "http://tenant:80/");
+
+			ConfigOverlay cycle = c.overlay(Collections.singletonMap("host", "%url%"));
+			try {
+				cycle.get("url");
+				Assert.fail("Cycle not reported.");
+			} catch (StringFormatException e) {
+				// Expected.
+			}
+
+			f.write("host=base\nport=81\nurl=%host%:%port%\n");
+			c.init(new String[] {f.getPath()});
+			Assert.assertEquals(top.get("url"), "tenant:8080");
+			Assert.assertEquals(o.get("url"), "tenant:81");
+		}
+		log.debug("leaving testOverlays");
+	}
+}
@@ -1,5 +1,7 @@
 package com.deetysoft.config;
 
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.apache.log4j.Logger;
 import org.testng.Assert;
 import org.testng.annotations.BeforeClass;
@@ -62,4 +64,24 @@ public class ConfigPropertiesSTest {
 		ConfigPropertiesS.init (fileNames2);
 		ConfigPropertiesTest.testExplicitFiles_(ConfigPropertiesS.getConfigProperties());
 	}
+
+	/**
+	 * Test {@link ConfigPropertiesS#preloadAsync()} and the reported
+	 * initialization time and failure.
+	 * @throws Exception	on any error
+	 */
+	@Test
+	public static void testPreload () throws Exception {
+		log.debug("in testPreload");
+		Future<ConfigProperties> future = ConfigPropertiesS.preloadAsync();
+		ConfigProperties loaded = future.get(10, TimeUnit.SECONDS);
+		Assert.assertNotNull(loaded);
+		Assert.assertSame(ConfigPropertiesS.preloadAsync(), future);
+		Assert.assertFalse(future.cancel(true));
+		Assert.assertFalse(future.isCancelled());
+		Assert.assertSame(future.get(), loaded);
+		Assert.assertTrue(ConfigPropertiesS.getInitMillis() >= 0);
+		Assert.assertNull(ConfigPropertiesS.getInitFailure());
+		log.debug("leaving testPreload");
+	}
 }
@@ -1,7 +1,27 @@
 package com.deetysoft.config;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.text.MessageFormat;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import org.apache.log4j.Logger;
 import org.testng.Assert;
 import org.testng.annotations.AfterClass;
@@ -166,6 +186,681 @@ public class ConfigPropertiesTest {
 		log.debug("in testExplicitFiles");
 	}
 
+	/**
+	 * Test that expanded values are cached, and that the cache is dropped
+	 * by {@link ConfigProperties#refresh()} and {@link ConfigProperties#init(String[])}.
+	 * @throws Exception	on any error
+	 */
+	@Test
+	public static void testExpansionCache () throws Exception {
+		log.debug("in testExpansionCache");
+
+		String workingDir = System.getProperty("user.dir");
+
+		String[] fileNames = {workingDir + "/" + FILE1, workingDir + "/" + FILE2};
+		System.setProperty("com.deetysoft.config.ENV_TEST", "fred");
+		ConfigProperties c = new ConfigProperties (fileNames);
+		Assert.assertEquals(c.get("com.deetysoft.config.ENV_TEST"), "fred");
+		Assert.assertEquals(c.get("msg"), "The hostname is wilma and port is 1776.");
+
+		// Assert the cached value is used until refresh.
+		System.setProperty("com.deetysoft.config.ENV_TEST", "barney");
+		Assert.assertEquals(c.get("com.deetysoft.config.ENV_TEST"), "fred");
+		c.refresh();
+		Assert.assertEquals(c.get("com.deetysoft.config.ENV_TEST"), "barney");
+
+		// Assert that merging a file drops the cache.
+		String[] fileNames2 = {workingDir + "/" + FILE1};
+		c.init(fileNames2);
+		Assert.assertEquals(c.get("msg"), "The hostname is betty and port is 1776.");
+		log.debug("leaving testExpansionCache");
+	}
+
+	/**
+	 * Test compiled substitutions: repeated and nested references,
+	 * escaped tokens and unmatched tokens.
+	 * @throws Exception	on any error
+	 */
+	@Test
+	public static void testSubstitutions () throws Exception {
+		log.debug("in testSubstitutions");
+		try (TempProperties f = TempProperties.create("substitutions",
+				"a=A\nb=%a%-%a%\nc=[%b%] 100\\\\% %a%\nbad=%a% %b\n")) {
+			ConfigProperties c = f.read();
+			Assert.assertEquals(c.get("b"), "A-A");
+			Assert.assertEquals(c.get("c"), "[A-A] 100\\% A");
+			Assert.assertEquals(c.getUnexpanded("bad"), "%a% %b");
+			try {
+				c.get("bad");
+				Assert.fail("Unmatched token not reported.");
+			} catch (StringFormatException e) {
+				// Expected.
+			}
+		}
+		log.debug("leaving testSubstitutions");
+	}
+
+	/**
+	 * Test that reference cycles are reported and that shared references
+	 * are expanded.
+	 * @throws Exception	on any error
+	 */
+	@Test
+	public static void testReferenceGraph () throws Exception {
+		log.debug("in testReferenceGraph");
+		try (TempProperties f = TempProperties.create("graph",
+				"a=%b%\nb=%a%\nc=x%a%\nself=%self%\n"+
+				"top=%left%|%right%\nleft=<%base%>\nright=(%base%)\nbase=%host%:1\nhost=h\n")) {
+			ConfigProperties c = f.read();
+			for (String name : new String[] {"a", "b", "c", "self"}) {
+				try {
+					c.get(name);
+					Assert.fail("Cycle not reported for '"+name+"'.");
+				} catch (StringFormatException e) {
+					Assert.assertTrue(e.getMessage().contains(" -> "), e.getMessage());
+				}
+			}
+			Assert.assertEquals(c.get("top"), "<h:1>|(h:1)");
+		}
+		log.debug("leaving testReferenceGraph");
+	}
+
+	/**
+	 * Test {@link ConfigProperties#freeze()} with valid and invalid properties.
+	 * @throws Exception	on any error
+	 */
+	@Test
+	public static void testFreeze () throws Exception {
+		log.debug("in testFreeze");
+		String workingDir = System.getProperty("user.dir");
+		String[] fileNames = {workingDir + "/" + FILE1, workingDir + "/" + FILE2};
+		System.setProperty("com.deetysoft.config.ENV_TEST", "fred");
+		ConfigProperties c = new ConfigProperties (fileNames);
+		c.freeze();
+		Assert.assertTrue(c.isFrozen());
+		testExplicitFiles_(c);
+		try {
+			c.init(fileNames);
+			Assert.fail("Frozen properties were initialized.");
+		} catch (IllegalStateException e) {
+			// Expected.
+		}
+
+		try (TempProperties f = TempProperties.create("freeze",
+				"a=%b%\nb=%a%\nc=%missing%\nd=%d\ne=ok\n")) {
+			c = f.read();
+			try {
+				c.freeze();
+				Assert.fail("Invalid properties were frozen.");
+			} catch (InvalidPropertiesException e) {
+				Assert.assertEquals(e.getErrors().keySet().toString(), "[a, b, c, d]");
+			}
+			Assert.assertFalse(c.isFrozen());
+		}
+		log.debug("leaving testFreeze");
+	}
+
+	/**
+	 * Test the typed accessors and their parse errors.
+	 * @throws Exception	on any error
+	 */
+	@Test
+	public static void testTypedAccessors () throws Exception {
+		log.debug("in testTypedAccessors");
+		try (TempProperties f = TempProperties.create("typed",
+				"size=%base%0\nbase= 4\nbig=12345678901\nflag=TRUE\nratio=0.25\n"+
+				"timeout=30s\niso=PT2M\nplain=250\nhosts=a, b,,c\nunit=seconds\nbad=x\n")) {
+			ConfigProperties c = f.read();
+			Assert.assertEquals(c.getInt("size"), 40);
+			Assert.assertEquals(c.getInt("size"), 40);
+			Assert.assertEquals(c.getLong("big"), 12345678901L);
+			Assert.assertEquals(c.getLong("size"), 40L);
+			Assert.assertEquals(c.getInt("size"), 40);
+
+			// Assert that a value read as two types keeps both parsed values.
+			List<String> units = c.getList("unit");
+			Assert.assertEquals(c.getEnum("unit", TimeUnit.class), TimeUnit.SECONDS);
+			Assert.assertSame(c.getList("unit"), units);
+			Assert.assertTrue(c.getBoolean("flag"));
+			Assert.assertEquals(c.getDouble("ratio"), 0.25);
+			Assert.assertEquals(c.getDuration("timeout"), Duration.ofSeconds(30));
+			Assert.assertEquals(c.getDuration("iso"), Duration.ofMinutes(2));
+			Assert.assertEquals(c.getDuration("plain"), Duration.ofMillis(250));
+			Assert.assertEquals(c.getList("hosts"), Arrays.asList("a", "b", "c"));
+			Assert.assertEquals(c.getEnum("unit", TimeUnit.class), TimeUnit.SECONDS);
+			try {
+				c.getInt("bad");
+				Assert.fail("Invalid int not reported.");
+			} catch (StringFormatException e) {
+				Assert.assertTrue(e.getMessage().contains("'bad'"), e.getMessage());
+			}
+			try {
+				c.getInt("big");
+				Assert.fail("Invalid int not reported.");
+			} catch (StringFormatException e) {
+				// Expected.
+			}
+		}
+		log.debug("leaving testTypedAccessors");
+	}
+
+	/**
+	 * Test {@link ConfigProperties#key} handles and their update by init.
+	 * @throws Exception	on any error
+	 */
+	@Test
+	public static void testKeys () throws Exception {
+		log.debug("in testKeys");
+		try (TempProperties f = TempProperties.create("keys", "size=%base%0\nbase=4\nname=pool\n")) {
+			ConfigProperties c = f.read();
+			ConfigKey<Integer> size = c.key("size", Integer.class);
+			ConfigKey<String> name = c.key("name", String.class);
+			ConfigKey<Boolean> flag = c.key("flag", Boolean.class);
+			Assert.assertSame(c.key("size", Integer.class), size);
+			Assert.assertEquals(size.getInt(), 40);
+			Assert.assertEquals(size.getLong(), 40L);
+			Assert.assertEquals(size.get(), Integer.valueOf(40));
+			Assert.assertEquals(name.get(), "pool");
+			try {
+				flag.getBoolean();
+				Assert.fail("Missing property not reported.");
+			} catch (MissingPropertyException e) {
+				// Expected.
+			}
+			try {
+				size.getDouble();
+				Assert.fail("Wrong key type not reported.");
+			} catch (IllegalStateException e) {
+				// Expected.
+			}
+
+			// Assert that merging a file updates the handles.
+			try (TempProperties f2 = TempProperties.create("keys", "base=8\nflag=true\n")) {
+				c.init(new String[] {f2.getPath()});
+			}
+			Assert.assertEquals(size.getInt(), 80);
+			Assert.assertTrue(flag.getBoolean());
+			Assert.assertEquals(name.get(), "pool");
+		}
+		log.debug("leaving testKeys");
+	}
+
+	/**
+	 * Test prefix queries, {@link ConfigProperties#subset} views and
+	 * the prefix spliterator, before and after init.
+	 * @throws Exception	on any error
+	 */
+	@Test
+	public static void testSubsets () throws Exception {
+		log.debug("in testSubsets");
+		try (TempProperties f = TempProperties.create("subset",
+				"db.primary.url=u1\ndb.primary.pool.size=4\ndb.primaryx=no\n"+
+				"db.replica.url=u2\nhost=%db.primary.url%\n");
+			TempProperties f2 = TempProperties.create("subset", "db.primary.user=admin\ndb.a=b\n")) {
+			ConfigProperties c = f.read();
+			Assert.assertEquals(list(c.getKeySet("db.primary.")),
+				Arrays.asList("db.primary.pool.size", "db.primary.url"));
+			Assert.assertEquals(list(c.getKeySet("zzz")), Collections.emptyList());
+			Assert.assertEquals(list(c.getKeySet("")).size(), 5);
+
+			ConfigSubset primary = c.subset("db.primary.");
+			Assert.assertEquals(primary.get("url"), "u1");
+			Assert.assertEquals(list(primary.getKeySet()), Arrays.asList("pool.size", "url"));
+			Assert.assertEquals(primary.subset("pool.").get("size"), "4");
+
+			// Assert that the index follows init.
+			c.init(new String[] {f2.getPath()});
+			Assert.assertEquals(list(primary.getKeySet()), Arrays.asList("pool.size", "url", "user"));
+			Assert.assertEquals(list(c.getKeySet("db.")).get(0), "db.a");
+			Assert.assertEquals(
+				StreamSupport.stream(c.spliterator("db."), true).collect(Collectors.toList()),
+				list(c.getKeySet("db.")));
+		}
+		log.debug("leaving testSubsets");
+	}
+
+	/**
+	 * Test that files read concurrently by init are merged in list order,
+	 * and that a file that can't be read is reported.
+	 * @throws Exception	on any error
+	 */
+	@Test
+	public static void testParallelInit () throws Exception {
+		log.debug("in testParallelInit");
+		List<TempProperties> files = new ArrayList<TempProperties>();
+		try {
+			String[] names = new String [8];
+			for (int i = 0; i < names.length; i++) {
+				TempProperties f = TempProperties.create("parallel", "p="+i+"\nk"+i+"=v"+i+"\n");
+				files.add(f);
+				names[i] = f.getPath();
+			}
+			ConfigProperties c = new ConfigProperties (names);
+			Assert.assertEquals(c.get("p"), "7");
+			for (int i = 0; i < names.length; i++) {
+				Assert.assertEquals(c.get("k"+i), "v"+i);
+			}
+			try {
+				c.init(new String[] {names[0], names[1]+".missing"});
+				Assert.fail("Missing file not reported.");
+			} catch (IOException e) {
+				// Expected.
+			}
+			Assert.assertEquals(c.get("p"), "7");
+		} finally {
+			for (TempProperties f : files) {
+				f.close();
+			}
+		}
+		log.debug("leaving testParallelInit");
+	}
+
+	/**
+	 * Test that property files are read as {@link Properties#load} reads
+	 * them, for a small file and one large enough to be mapped.
+	 * @throws Exception	on any error
+	 */
+	@Test
+	public static void testFileSyntax () throws Exception {
+		log.debug("in testFileSyntax");
+		String syntax = "# comment\n! comment\n  a = b \nc:d\ne f\ng=1\\\n   2\\\r\n3\r\n"+
+			"h\\=i=j\\:k\nu=\\u0041\\t\\x\nempty=\nl=m\\\\\n\nn=o\\";
+		StringBuilder large = new StringBuilder(syntax).append('\n');
+		for (int i = 0; large.length() < 2 << 20; i++) {
+			large.append("key.").append(i).append("=value ").append(i).append(" \\\n  more\n");
+		}
+		try (TempProperties f = TempProperties.create("syntax", syntax)) {
+			for (String content : new String[] {syntax, large.toString()}) {
+				f.write(content);
+				Properties expected = new Properties();
+				try (FileInputStream in = new FileInputStream(f.file)) {
+					expected.load(in);
+				}
+				ConfigProperties c = f.read();
+				int count = 0;
+				for (Iterator<String> i = c.getKeySet(); i.hasNext(); count++) {
+					String name = i.next();
+					Assert.assertEquals(c.getUnexpanded(name), expected.getProperty(name), name);
+				}
+				Assert.assertEquals(count, expected.size());
+			}
+
+			// A line continued from a bare backslash is not a comment, as in the
+			// Java 8 Properties.load - later JDKs read it as one.
+			f.write("\\\n#x=1\n  \\\r\n!y=2\na=1\n\\\n\n#c=2\n");
+			ConfigProperties c = f.read();
+			Assert.assertEquals(c.getUnexpanded("#x"), "1");
+			Assert.assertEquals(c.getUnexpanded("!y"), "2");
+			Assert.assertEquals(c.getUnexpanded("a"), "1");
+			Assert.assertEquals(list(c.getKeySet()).size(), 3);
+		}
+		log.debug("leaving testFileSyntax");
+	}
+
+	/**
+	 * Test the built in {@link ConfigSource}s - properties in memory,
+	 * CLASSPATH resources and directory globs.
+	 * @throws Exception	on any error
+	 */
+	@Test
+	public static void testConfigSources () throws Exception {
+		log.debug("in testConfigSources");
+		File dir = File.createTempFile("sources", "");
+		dir.delete();
+		dir.mkdir();
+		File a = new File(dir, "a.properties");
+		File b = new File(dir, "b.properties");
+		File other = new File(dir, "c.txt");
+		try {
+			TempProperties.write(b, "p=b\nb=%m%\n");
+			TempProperties.write(a, "p=a\na=1\n");
+			TempProperties.write(other, "p=other\n");
+			MemorySource.put("test", Collections.singletonMap("m", "memory"));
+			ConfigProperties c = new ConfigProperties (new String[] {
+				"memory:test", "glob:"+dir.getPath()+File.separator+"*.properties",
+				"classpath:com/deetysoft/config/FILE1.properties", "glob:"+dir.getPath()+File.separator+"missing/*"});
+			Assert.assertEquals(c.get("p"), "b");
+			Assert.assertEquals(c.get("a"), "1");
+			Assert.assertEquals(c.get("b"), "memory");
+			Assert.assertNotNull(c.get("hostname"));
+			Assert.assertEquals(c.getFiles().size(), 4);
+
+			MemorySource.put("test", Collections.singletonMap("m", "changed"));
+			c.reload(c.getFiles());
+			Assert.assertEquals(c.get("b"), "changed");
+
+			MemorySource.remove("test");
+			c = new ConfigProperties (new String[] {"memory:test"});
+			Assert.assertFalse(c.getKeySet().hasNext(), "Removed properties found.");
+
+			// Assert a CLASSPATH resource added after a miss is found.
+			URLClassLoader loader = new URLClassLoader(new URL[] {dir.toURI().toURL()}, null);
+			File late = new File(dir, "late.properties");
+			try {
+				Assert.assertTrue(ConfigSources.resolve("classpath:late.properties", loader).isEmpty());
+				TempProperties.write(late, "late=1\n");
+				Assert.assertEquals(ConfigSources.resolve("classpath:late.properties", loader).size(), 1);
+			} finally {
+				loader.close();
+			}
+		} finally {
+			MemorySource.remove("test");
+			TempProperties.delete(dir);
+		}
+		log.debug("leaving testConfigSources");
+	}
+
+	/**
+	 * Test bulk reads by name and by prefix, with every error reported.
+	 * @throws Exception	on any error
+	 */
+	@Test
+	public static void testGetAll () throws Exception {
+		log.debug("in testGetAll");
+		try (TempProperties f = TempProperties.create("getAll",
+				"db.host=h\ndb.url=%db.host%:%db.port%\ndb.port=1\nx=%missing%\ny=%x%\n")) {
+			ConfigProperties c = f.read();
+
+			Map<String, String> values = c.getAll(Arrays.asList("db.url", "db.host"));
+			Assert.assertEquals(new ArrayList<String>(values.keySet()),
+				Arrays.asList("db.url", "db.host"));
+			Assert.assertEquals(values.get("db.url"), "h:1");
+			try {
+				values.put("z", "z");
+				Assert.fail("Modifiable map returned.");
+			} catch (UnsupportedOperationException e) {
+				// Expected.
+			}
+
+			values = c.getAll("db.");
+			Assert.assertEquals(new ArrayList<String>(values.keySet()),
+				Arrays.asList("db.host", "db.port", "db.url"));
+			Assert.assertEquals(c.subset("db.").getAll().get("url"), "h:1");
+
+			try {
+				c.getAll(Arrays.asList("x", "db.port", "none", "y"));
+				Assert.fail("Invalid properties not reported.");
+			} catch (InvalidPropertiesException e) {
+				Assert.assertEquals(e.getErrors().keySet(),
+					new TreeSet<String>(Arrays.asList("none", "x", "y")));
+				Assert.assertTrue(e.getErrors().get("none") instanceof MissingPropertyException);
+			}
+		}
+		log.debug("leaving testGetAll");
+	}
+
+	/**
+	 * Assert that compiled argument formats produce the same result as
+	 * {@link MessageFormat#format(String, Object[])}.
+	 * @throws Exception	on any error
+	 */
+	@Test
+	public static void testArgumentFormats () throws Exception {
+		log.debug("in testArgumentFormats");
+		String[] patterns = {"", "plain", "{0}", "a {1} b {0} c", "{2}{0}",
+			"{00} and {1", "it''s {0}", "'{0}' {0}", "{0,number,#.#}",
+			"} {0} {", "{ 0}"};
+		String[][] argsList = {null, {}, {"x"}, {"1.25", "y"}, {null, "z", "w"}};
+		for (String pattern : patterns) {
+			for (String[] args : argsList) {
+				String expected;
+				try {
+					expected = MessageFormat.format(pattern, (Object[])args);
+				} catch (IllegalArgumentException e) {
+					expected = "IllegalArgumentException";
+				}
+				String actual;
+				try {
+					actual = ArgumentFormat.compile(pattern).format(args);
+				} catch (IllegalArgumentException e) {
+					actual = "IllegalArgumentException";
+				}
+				Assert.assertEquals(actual, expected, "Pattern '"+pattern+"'.");
+				StringBuilder out = new StringBuilder("<");
+				try {
+					ArgumentFormat.compile(pattern).appendTo(args, out);
+				} catch (IllegalArgumentException e) {
+					out.append("IllegalArgumentException");
+				}
+				Assert.assertEquals(out.toString(), "<"+expected, "Pattern '"+pattern+"'.");
+			}
+		}
+		log.debug("leaving testArgumentFormats");
+	}
+
+	/**
+	 * Test appending values to a caller's buffer.
+	 * @throws Exception	on any error
+	 */
+	@Test
+	public static void testAppendTo () throws Exception {
+		log.debug("in testAppendTo");
+		try (TempProperties f = TempProperties.create("appendTo",
+				"host=h\nurl=http://%host%/{0}?q={1}\nquoted=it''s {0}\n")) {
+			ConfigProperties c = f.read();
+			StringBuilder out = new StringBuilder("GET ");
+			c.appendTo("url", new String[] {"p", "x"}, out);
+			out.append(' ');
+			c.appendTo("host", out);
+			c.appendTo("quoted", new String[] {"7"}, out.append(' '));
+			Assert.assertEquals(out.toString(), "GET http://h/p?q=x h "+
+				"it's 7");
+			try (ConfigScope scope = ConfigScope.open("host", "s")) {
+				out.setLength(0);
+				c.appendTo("url", new String[] {"p", "x"}, out);
+				Assert.assertEquals(out.toString(), "http://s/p?q=x");
+			}
+			try {
+				c.appendTo("none", null, out);
+				Assert.fail("Missing property not reported.");
+			} catch (MissingPropertyException e) {
+				// Expected.
+			}
+
+			// Values not yet expanded are streamed, and not cached.
+			ConfigProperties c2 = f.read();
+			ConfigMetrics m = c2.enableMetrics();
+			StringBuffer buffer = new StringBuffer("<");
+			c2.appendTo("url", buffer);
+			c2.appendTo("quoted", new String[] {"8"}, buffer);
+			Assert.assertEquals(buffer.toString(), "<http://h/{0}?q={1}it's 8");
+			Assert.assertEquals(m.getExpansionCount(), 1);
+			// Assert get expands the value again, then caches it.
+			Assert.assertEquals(c2.get("url"), "http://h/{0}?q={1}");
+			Assert.assertEquals(m.getExpansionCount(), 2);
+			c2.get("url");
+			c2.appendTo("url", buffer);
+			Assert.assertEquals(m.getExpansionCount(), 2);
+			c2.disableMetrics();
+		}
+		log.debug("leaving testAppendTo");
+	}
+
+	/**
+	 * Read from several threads while another thread repeatedly initializes.
+	 * Assert that readers never fail and see either merged state.
+	 * @throws Exception	on any error
+	 */
+	@Test
+	public static void testConcurrentInit () throws Exception {
+		log.debug("in testConcurrentInit");
+
+		String workingDir = System.getProperty("user.dir");
+		final String[] fileNames1 = {workingDir + "/" + FILE1};
+		final String[] fileNames2 = {workingDir + "/" + FILE2};
+		final ConfigProperties c = new ConfigProperties (fileNames2);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable> ();
+		final AtomicBoolean done = new AtomicBoolean ();
+
+		Thread[] readers = new Thread [4];
+		for (int i = 0; i < readers.length; i++) {
+			readers[i] = new Thread () {
+				public void run () {
+					try {
+						while (!done.get()) {
+							String msg = c.get("msg");
+							if (!msg.equals("The hostname is wilma and port is 1776.")
+								&& !msg.equals("The hostname is betty and port is 1776.")) {
+								throw new AssertionError(msg);
+							}
+							Iterator<String> keys = c.getKeySet();
+							while (keys.hasNext()) {
+								c.getUnexpanded(keys.next());
+							}
+						}
+					} catch (Throwable t) {
+						failure.compareAndSet(null, t);
+					}
+				}
+			};
+			readers[i].start();
+		}
+		for (int i = 0; i < 200; i++) {
+			c.init(i % 2 == 0 ? fileNames1 : fileNames2);
+		}
+		done.set(true);
+		for (Thread reader : readers) {
+			reader.join();
+		}
+		Assert.assertNull(failure.get());
+		log.debug("leaving testConcurrentInit");
+	}
+
+	/**
+	 * Test that listeners are notified only for changed expanded values,
+	 * including values changed through a reference.
+	 * @throws Exception	on any error
+	 */
+	@Test
+	public static void testListeners () throws Exception {
+		log.debug("in testListeners");
+
+		String workingDir = System.getProperty("user.dir");
+		ConfigProperties c = new ConfigProperties (new String[] {workingDir + "/" + FILE1});
+		final List<String> changes = new ArrayList<String> ();
+		ConfigChangeListener listener = new ConfigChangeListener () {
+			public void propertyChanged (String name, String oldValue, String newValue) {
+				changes.add(name+"="+newValue);
+			}
+		};
+		c.addListener("hostname", listener);
+		c.addListener("port", listener);
+		c.addPrefixListener("ms", listener);
+
+		c.init(new String[] {workingDir + "/" + FILE2});
+		Collections.sort(changes);
+		Assert.assertEquals(changes.toString(),
+			"[hostname=wilma, msg=The hostname is wilma and port is 1776., port=1776]");
+
+		// Assert that msg changes through its reference to hostname.
+		changes.clear();
+		c.init(new String[] {workingDir + "/" + FILE1});
+		Collections.sort(changes);
+		Assert.assertEquals(changes.toString(),
+			"[hostname=betty, msg=The hostname is betty and port is 1776.]");
+
+		changes.clear();
+		c.init(new String[] {workingDir + "/" + FILE1});
+		Assert.assertTrue(changes.isEmpty(), changes.toString());
+
+		changes.clear();
+		c.removeListener(listener);
+		c.init(new String[] {workingDir + "/" + FILE2});
+		Assert.assertTrue(changes.isEmpty(), changes.toString());
+		log.debug("leaving testListeners");
+	}
+
+	/**
+	 * Test that a changed file is reloaded when reloading is started,
+	 * keeping the merge order.
+	 * @throws Exception	on any error
+	 */
+	@Test
+	public static void testReloading () throws Exception {
+		log.debug("in testReloading");
+		String workingDir = System.getProperty("user.dir");
+		ConfigProperties c = null;
+		try (TempProperties f = TempProperties.create("reloading",
+				"hostname=fred\nport=80\ncolor=red\nshade=dark\n")) {
+			c = new ConfigProperties (new String[] {f.getPath(), workingDir + "/" + FILE2});
+			// Assert a non-positive interval is rejected.
+			for (long[] intervals : new long[][] {{0, 50}, {50, 0}, {-1, 50}}) {
+				try {
+					c.startReloading(intervals[0], intervals[1]);
+					Assert.fail("Interval accepted: "+Arrays.toString(intervals));
+				} catch (IllegalArgumentException e) {
+					// Ok.
+				}
+			}
+			c.startReloading(50, 50);
+			Assert.assertEquals(c.get("color"), "red");
+
+			f.write("hostname=fred\nport=80\ncolor=blue\n");
+			long end = System.currentTimeMillis() + 10000;
+			while (c.get("color").equals("red") && System.currentTimeMillis() < end) {
+				Thread.sleep(20);
+			}
+			Assert.assertEquals(c.get("color"), "blue");
+			// Assert FILE2 still overrides the reloaded file.
+			Assert.assertEquals(c.get("msg"), "The hostname is wilma and port is 1776.");
+			// Assert a property removed from the file is removed.
+			Assert.assertFalse(list(c.getKeySet()).contains("shade"));
+
+			// Assert init reading the file again removes properties the same way.
+			c.stopReloading();
+			f.write("hostname=fred\nport=80\n");
+			c.init(new String[] {f.getPath()});
+			Assert.assertFalse(list(c.getKeySet()).contains("color"));
+			Assert.assertEquals(c.get("hostname"), "fred");
+		} finally {
+			if (c != null) {
+				c.stopReloading();
+			}
+		}
+		log.debug("leaving testReloading");
+	}
+
+	/**
+	 * Test that a polled file that can't be read is reported as changed
+	 * once, and again once it can be read.
+	 * @throws Exception	on any error
+	 */
+	@Test
+	public static void testUnreadableFile () throws Exception {
+		log.debug("in testUnreadableFile");
+		final AtomicBoolean readable = new AtomicBoolean(true);
+		PropertyFile file = new PropertyFile("unreadable", new ConfigSource.Resource() {
+			public String getLocation() {
+				return "memory:unreadable";
+			}
+			public ByteBuffer read() throws IOException {
+				if (!readable.get()) {
+					throw new IOException("Not readable.");
+				}
+				return ByteBuffer.wrap("a=1\n".getBytes("ISO-8859-1"));
+			}
+		});
+		file.load();
+		Assert.assertFalse(file.isModified());
+		readable.set(false);
+		Assert.assertTrue(file.isModified());
+		Assert.assertFalse(file.isModified());
+		Assert.assertFalse(file.isModified());
+		readable.set(true);
+		Assert.assertTrue(file.isModified());
+		file.load();
+		Assert.assertFalse(file.isModified());
+		log.debug("leaving testUnreadableFile");
+	}
+
+	static List<String> list (Iterator<String> iter) {
+		List<String> names = new ArrayList<String>();
+		while (iter.hasNext()) {
+			names.add(iter.next());
+		}
+		return names;
+	}
+
 	/**
 	 * Make assertions assuming the given ConfigProperties
 	 * was initialized with file FILE1.
@@ -0,0 +1,88 @@
+package com.deetysoft.config;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import org.apache.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test the class {@link ConfigScope}.
+ */
+public class ConfigScopeTest {
+
+	protected static Logger log = null;
+
+	static {
+		log = Logger.getLogger(ConfigScopeTest.class);
+	}
+
+	@BeforeMethod
+	public static void beforeMethod () {
+
+		log.debug("beforeMethod");
+		ConfigPropertiesTest.clearEnv();
+		log.debug("leaving beforeMethod");
+	}
+
+	/**
+	 * Test scoped overrides: nesting, expansion of dependent values, typed
+	 * reads and handles, and isolation from other threads.
+	 * @throws Exception	on any error
+	 */
+	@Test
+	public static void testScopes () throws Exception {
+		log.debug("in testScopes");
+		try (TempProperties f = TempProperties.create("scope", "size=4\nmsg=size %size%\nflag=false\n")) {
+			final ConfigProperties c = f.read();
+			ConfigKey<Integer> size = c.key("size", Integer.class);
+			Callable<String> msg = new Callable<String>() {
+				public String call() throws Exception {
+					return c.get("msg");
+				}
+			};
+			FutureTask<String> unscoped = new FutureTask<String>(msg);
+			Thread isolated = new Thread(unscoped);
+			Assert.assertNull(ConfigScope.current());
+			try (ConfigScope outer = ConfigScope.open("size", "8")) {
+				Assert.assertEquals(c.get("msg"), "size 8");
+				Assert.assertEquals(c.getInt("size"), 8);
+				Assert.assertEquals(size.getInt(), 8);
+				Assert.assertEquals(size.get(), Integer.valueOf(8));
+				Assert.assertFalse(c.getBoolean("flag"));
+				try (ConfigScope inner = ConfigScope.open("flag", "true")) {
+					Assert.assertTrue(c.getBoolean("flag"));
+					Assert.assertEquals(c.get("msg"), "size 8");
+					try {
+						outer.close();
+						Assert.fail("Out of order close not reported.");
+					} catch (IllegalStateException e) {
+						// Expected.
+					}
+				}
+				Assert.assertFalse(c.getBoolean("flag"));
+
+				Callable<String> wrapped = ConfigScope.wrap(msg);
+				FutureTask<String> started = new FutureTask<String>(msg);
+				try (ConfigScope nested = ConfigScope.open("size", "16")) {
+					// A thread started in the scope does not inherit it,
+					// a wrapped task runs in it.
+					new Thread(started).start();
+					Assert.assertEquals(started.get(), "size 4");
+					FutureTask<String> carried = new FutureTask<String>(ConfigScope.wrap(msg));
+					new Thread(carried).start();
+					Assert.assertEquals(carried.get(), "size 16");
+					Assert.assertEquals(wrapped.call(), "size 8");
+				}
+				// A thread created outside the scope does not see it.
+				isolated.start();
+				Assert.assertEquals(unscoped.get(), "size 4");
+			}
+			Assert.assertEquals(c.get("msg"), "size 4");
+			Assert.assertEquals(size.getInt(), 4);
+			Assert.assertNull(ConfigScope.current());
+		}
+		log.debug("leaving testScopes");
+	}
+}
@@ -0,0 +1,95 @@
+package com.deetysoft.config;
+
+import java.io.File;
+import java.io.IOException;
+import org.apache.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test the class {@link SnapshotCompiler} and loading its snapshots.
+ */
+public class SnapshotCompilerTest {
+
+	protected static Logger log = null;
+
+	static {
+		log = Logger.getLogger(SnapshotCompilerTest.class);
+	}
+
+	@BeforeMethod
+	public static void beforeMethod () {
+
+		log.debug("beforeMethod");
+		ConfigPropertiesTest.clearEnv();
+		log.debug("leaving beforeMethod");
+	}
+
+	/**
+	 * Test {@link SnapshotCompiler} and {@link ConfigProperties#loadSnapshot},
+	 * including 'env.' references and a changed source file.
+	 * @throws Exception	on any error
+	 */
+	@Test
+	public static void testCompiledSnapshot () throws Exception {
+		log.debug("in testCompiledSnapshot");
+		String workingDir = System.getProperty("user.dir");
+		File snapshot = File.createTempFile("compiled", ".snapshot");
+		try (TempProperties f = TempProperties.create("compiled",
+				"greeting=caf\\u00e9 \\u4e16 %msg%\nlocal=%com.deetysoft.config.ENV_TEST%!\n")) {
+			File late = new File(f.getPath() + ".late");
+			try {
+				System.setProperty("com.deetysoft.config.ENV_TEST", "fred");
+				ConfigProperties c = new ConfigProperties (new String[] {
+					"classpath:com/deetysoft/config/FILE1.properties",
+					workingDir + "/" + ConfigPropertiesTest.FILE2,
+					f.getPath(), "glob:" + f.getPath() + ".lat*"});
+				SnapshotCompiler.compile(c, snapshot.getPath());
+
+				System.setProperty("com.deetysoft.config.ENV_TEST", "barney");
+				ConfigProperties loaded = ConfigProperties.loadSnapshot(snapshot.getPath());
+				Assert.assertTrue(loaded.isFrozen());
+				ConfigPropertiesTest.testExplicitFiles_(loaded);
+				Assert.assertEquals(loaded.get("greeting"),
+					"caf\u00e9 \u4e16 The hostname is wilma and port is 1776.");
+				Assert.assertEquals(loaded.getUnexpanded("msg"),
+					"The hostname is %hostname% and port is %port%.");
+				Assert.assertEquals(loaded.get("local"), "barney!");
+				Assert.assertEquals(loaded.getInt("port"), 1776);
+				Assert.assertEquals(ConfigPropertiesTest.list(loaded.getKeySet("com.")).size(), 2);
+				try {
+					loaded.get("missing");
+					Assert.fail("Missing property not reported.");
+				} catch (MissingPropertyException e) {
+					// Expected.
+				}
+
+				// Assert that a file added since compiled is reported.
+				TempProperties.write(late, "greeting=late\n");
+				try {
+					ConfigProperties.loadSnapshot(snapshot.getPath());
+					Assert.fail("Added file not reported.");
+				} catch (IOException e) {
+					Assert.assertTrue(e.getMessage().contains("stale"), e.getMessage());
+				}
+				late.delete();
+				ConfigProperties.loadSnapshot(snapshot.getPath());
+
+				// Assert that a changed source file is reported.
+				f.write("greeting=hello\n");
+				try {
+					ConfigProperties.loadSnapshot(snapshot.getPath());
+					Assert.fail("Stale snapshot not reported.");
+				} catch (IOException e) {
+					Assert.assertTrue(e.getMessage().contains("stale"), e.getMessage());
+				}
+			} finally {
+				late.delete();
+			}
+		} finally {
+			snapshot.delete();
+		}
+		log.debug("leaving testCompiledSnapshot");
+	}
+}
@@ -0,0 +1,100 @@
+package com.deetysoft.config;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * A temporary property file for tests, deleted on close.
+ * <pre>
+ * try (TempProperties f = TempProperties.create("name", "a=1\n")) {
+ *     ConfigProperties c = f.read();
+ * }
+ * </pre>
+ */
+final class TempProperties implements AutoCloseable {
+
+	/**
+	 * The file.
+	 */
+	final File file;
+
+	private TempProperties (File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Create a temporary property file.
+	 * @param prefix	the file name prefix
+	 * @param content	the file content
+	 * @return			the file
+	 * @throws IOException	creating or writing the file
+	 */
+	static TempProperties create (String prefix, String content) throws IOException {
+		TempProperties f = new TempProperties(File.createTempFile(prefix, ".properties"));
+		try {
+			f.write(content);
+		} catch (IOException e) {
+			f.close();
+			throw e;
+		}
+		return f;
+	}
+
+	/**
+	 * @return	the file path
+	 */
+	String getPath () {
+		return file.getPath();
+	}
+
+	/**
+	 * Replace the file content.
+	 * @param content	the file content
+	 * @throws IOException	writing the file
+	 */
+	void write (String content) throws IOException {
+		write(file, content);
+	}
+
+	/**
+	 * @return	a ConfigProperties reading only this file
+	 * @throws IOException	reading the file
+	 */
+	ConfigProperties read () throws IOException {
+		return new ConfigProperties (new String[] {getPath()});
+	}
+
+	/**
+	 * Delete the file.
+	 */
+	public void close () {
+		file.delete();
+	}
+
+	/**
+	 * Write a file.
+	 * @param f			the file
+	 * @param content	the file content
+	 * @throws IOException	writing the file
+	 */
+	static void write (File f, String content) throws IOException {
+		try (FileWriter w = new FileWriter (f)){
+			w.write(content);
+		}
+	}
+
+	/**
+	 * Delete a file or a directory and its content.
+	 * @param f	the file
+	 */
+	static void delete (File f) {
+		File[] children = f.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		f.delete();
+	}
+}